@@ -0,0 +1,115 @@
+package dev.johanness.processor.segmented;
+
+import dev.johanness.processor.segmented._internal.KeyValues;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Compares {@link KeyValues} with the chain of maps which was used before.
+ * Each level of the element tree used to add one map to the chain, so reading
+ * a value which was set near the root had to visit every level.
+ */
+@State(Scope.Benchmark)
+public class KeyValuesBenchmark {
+  @Param({"1", "8", "32"})
+  public int depth;
+
+  @Param({"16"})
+  public int keys;
+
+  private Key<?>[] allKeys;
+  private Key<Object> rootKey;
+  private ChainedMap chainLeaf;
+  private KeyValues valuesLeaf;
+
+  @Setup
+  public void setUp() {
+    allKeys = new Key<?>[keys];
+    for (int i = 0; i < keys; i++) {
+      allKeys[i] = new Key<>("key" + i);
+    }
+    @SuppressWarnings("unchecked") Key<Object> first = (Key<Object>) allKeys[0];
+    rootKey = first;
+
+    chainLeaf = new ChainedMap(null);
+    chainLeaf.put(rootKey, "root");
+    valuesLeaf = KeyValues.empty().with(rootKey, "root");
+    for (int level = 1; level < depth; level++) {
+      chainLeaf = new ChainedMap(chainLeaf);
+      Key<?> key = allKeys[level % keys];
+      if (key != rootKey) {
+        chainLeaf.put(key, level);
+        valuesLeaf = valuesLeaf.with(castKey(key), level);
+      }
+    }
+  }
+
+  @Benchmark
+  public Object readRootValueFromChain() {
+    return chainLeaf.get(rootKey);
+  }
+
+  @Benchmark
+  public Object readRootValueFromKeyValues() {
+    return valuesLeaf.get(rootKey);
+  }
+
+  @Benchmark
+  public Object writeBackChain() {
+    ChainedMap child = new ChainedMap(chainLeaf);
+    child.put(rootKey, "child");
+    child.writeBack();
+    return child;
+  }
+
+  @Benchmark
+  public Object writeBackKeyValues() {
+    KeyValues child = valuesLeaf.with(rootKey, "child");
+    return valuesLeaf.withChanges(valuesLeaf, child);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Key<Object> castKey(Key<?> key) {
+    return (Key<Object>) key;
+  }
+
+  /**
+   * Copy of the lookup strategy of the former {@code KeyValueMap}.
+   */
+  private static final class ChainedMap {
+    private final ChainedMap fallback;
+    private Map<Key<?>, Object> map;
+
+    private ChainedMap(ChainedMap fallback) {
+      this.fallback = fallback;
+    }
+
+    private void put(Key<?> key, Object value) {
+      if (map == null) {
+        map = new IdentityHashMap<>(4);
+      }
+      map.put(key, value);
+    }
+
+    private Object get(Key<?> key) {
+      Object result = map == null ? null : map.get(key);
+      if (result == null && fallback != null) {
+        return fallback.get(key);
+      }
+      return result;
+    }
+
+    private void writeBack() {
+      if (map != null) {
+        map.forEach(fallback::put);
+        map.clear();
+      }
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package dev.johanness.processor.segmented;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import java.util.List;
+
+/**
+ * Compares the {@linkplain SchedulingStrategy scheduling strategies}. Next to
+ * the time and allocations, the benchmark reports the highest number of
+ * queued tasks ({@code peakQueuedTasks}), which dominates the peak heap, and
+ * how many classes were completed in the first round
+ * ({@code completedInFirstRound}). Classes which are visited before the
+ * configuration is available are blocked, and run again once it is set.
+ * Metrics are enabled to count the queued tasks, so their overhead is
+ * included in the time of all strategies.
+ */
+@State(Scope.Benchmark)
+public class SchedulerBenchmark {
+  private static final Key<Object> CONFIGURATION = new Key<>("configuration");
+
+  @Param({"FIFO", "DEPTH_FIRST", "PRIORITY"})
+  public SchedulingStrategy strategy;
+
+  @Param({"4"})
+  public int visitors;
+
+  @Param({"200"})
+  public int classes;
+
+  private ProcessingEnvironment processingEnv;
+  private Element configurationClass;
+  private RoundEnvironment firstRound;
+  private RoundEnvironment lastRound;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Counters {
+    public int peakQueuedTasks;
+    public int completedInFirstRound;
+  }
+
+  @Setup
+  public void setUp() {
+    List<Element> roots = FakeElements.classes(classes, 10, 10, 1);
+    processingEnv = FakeElements.processingEnv();
+    // The configuration is provided by a class in the middle of the round.
+    configurationClass = roots.get(roots.size() / 2);
+    firstRound = FakeElements.round(roots, false);
+    lastRound = FakeElements.round(List.of(), true);
+  }
+
+  @Benchmark
+  public SegmentedExecutor schedule(Counters counters) {
+    SegmentedExecutor executor = new SegmentedExecutor(processingEnv);
+    executor.setSchedulingStrategy(strategy);
+    executor.enableMetrics(null);
+    for (int i = 0; i < visitors; i++) {
+      executor.addVisitor(new CountingVisitor(), true);
+    }
+    ConsumingVisitor consumer = new ConsumingVisitor();
+    executor.addVisitor(new ProvidingVisitor(configurationClass), ElementKind.CLASS);
+    executor.addVisitor(consumer, ElementKind.CLASS);
+
+    executor.process(firstRound);
+    counters.completedInFirstRound = consumer.completed;
+    executor.process(lastRound);
+    counters.peakQueuedTasks = executor.getMetrics().getQueueHighWaterMark();
+    return executor;
+  }
+
+  private static final class CountingVisitor implements Visitor {
+    private int count;
+
+    @Override
+    public Boolean visitUnknown(Element element, Preliminary preliminary) {
+      count++;
+      return true;
+    }
+  }
+
+  /**
+   * Publishes the configuration when visiting the configuration class.
+   */
+  private static final class ProvidingVisitor implements Visitor {
+    private final Element configurationClass;
+
+    private ProvidingVisitor(Element configurationClass) {
+      this.configurationClass = configurationClass;
+    }
+
+    @Override
+    public Boolean visitType(TypeElement element, Preliminary preliminary) {
+      if (element == configurationClass) {
+        preliminary.action(element, (item, definitely) -> definitely.setGlobal(CONFIGURATION, item));
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Needs the configuration for every class.
+   */
+  private static final class ConsumingVisitor implements Visitor {
+    private int completed;
+
+    @Override
+    public Boolean visitType(TypeElement element, Preliminary preliminary) {
+      if (preliminary.getOrNull(CONFIGURATION) == null) {
+        preliminary.blockOn(CONFIGURATION);
+        return false;
+      }
+      completed++;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package dev.johanness.processor.segmented;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.Element;
+import java.util.List;
+
+/**
+ * Measures a complete run of the executor over a synthetic element tree. Run
+ * with {@code ./gradlew :lib:jmh}; the GC profiler is enabled by default, so
+ * {@code gc.alloc.rate.norm} reports the bytes allocated per run.
+ */
+@State(Scope.Benchmark)
+public class TaskEngineBenchmark {
+  @Param({"4"})
+  public int visitors;
+
+  @Param({"200"})
+  public int classes;
+
+  private ProcessingEnvironment processingEnv;
+  private RoundEnvironment firstRound;
+  private RoundEnvironment lastRound;
+
+  @Setup
+  public void setUp() {
+    List<Element> roots = FakeElements.classes(classes, 10, 10, 1);
+    processingEnv = FakeElements.processingEnv();
+    firstRound = FakeElements.round(roots, false);
+    lastRound = FakeElements.round(List.of(), true);
+  }
+
+  @Benchmark
+  public SegmentedExecutor recursiveVisitors() {
+    SegmentedExecutor executor = new SegmentedExecutor(processingEnv);
+    for (int i = 0; i < visitors; i++) {
+      executor.addVisitor(new CountingVisitor(), true);
+    }
+    executor.process(firstRound);
+    executor.process(lastRound);
+    return executor;
+  }
+
+  private static final class CountingVisitor implements Visitor {
+    private int count;
+
+    @Override
+    public Boolean visitUnknown(Element element, Preliminary preliminary) {
+      count++;
+      return true;
+    }
+  }
+}
@@ -4,14 +4,26 @@
 import org.jetbrains.annotations.Nullable;
 
 import javax.lang.model.AnnotatedConstruct;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-public final class AnnotationAccess {
-  // TODO: Add basic test
+import static dev.johanness.processor.ElementCast.toTypeElement;
 
+public final class AnnotationAccess {
   private AnnotationAccess() {} // Cannot be instantiated
 
   public static boolean has(@NotNull AnnotatedConstruct construct, @NotNull AnnotationType<?> type) {
@@ -47,12 +59,231 @@ public static boolean hasAnnotation(@NotNull AnnotatedConstruct construct, @NotN
     return streamAnnotations(construct, type).collect(Collectors.toUnmodifiableList());
   }
 
+  /**
+   * Checks whether the given class has an annotation of the given type, or
+   * inherits it from a superclass. Annotations are only inherited if their
+   * annotation interface is annotated with {@link java.lang.annotation.Inherited}.
+   *
+   * @param element the class.
+   * @param type    the annotation type.
+   * @return whether the annotation is present.
+   */
+  public static boolean hasInherited(@NotNull TypeElement element, @NotNull AnnotationType<?> type) {
+    return searchInherited(element, type) != null;
+  }
+
+  /**
+   * Returns the annotation of the given type on the given class, or the
+   * annotation inherited from the nearest superclass.
+   *
+   * @param element the class.
+   * @param type    the annotation type.
+   * @return the annotation, or {@code null} if it is not present.
+   * @see #hasInherited(TypeElement, AnnotationType)
+   */
+  public static <P> @Nullable P searchInherited(@NotNull TypeElement element, @NotNull AnnotationType<P> type) {
+    for (AnnotationMirror mirror : inheritedMirrors(element, AnnotationCache.active())) {
+      if (type.matches(mirror.getAnnotationType())) {
+        return type.proxy(mirror);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Checks whether one of the annotations of the given construct is
+   * meta-annotated with the given type. Meta-annotations are the annotations
+   * of the annotation interfaces, directly or transitively. The annotation
+   * interfaces in {@code java.lang.annotation} are not searched, so
+   * {@code @Retention} is a meta-annotation, but the {@code @Documented} of
+   * {@code @Retention} is not.
+   *
+   * @param construct the annotated construct.
+   * @param type      the type of the meta-annotation.
+   * @return whether the meta-annotation is present.
+   */
+  public static boolean hasMetaAnnotation(@NotNull AnnotatedConstruct construct, @NotNull AnnotationType<?> type) {
+    return searchMetaAnnotation(construct, type) != null;
+  }
+
+  /**
+   * Returns a meta-annotation of the given type.
+   *
+   * @param construct the annotated construct.
+   * @param type      the type of the meta-annotation.
+   * @return the nearest meta-annotation, or {@code null} if it is not present.
+   * @see #hasMetaAnnotation(AnnotatedConstruct, AnnotationType)
+   */
+  public static <P> @Nullable P searchMetaAnnotation(@NotNull AnnotatedConstruct construct, @NotNull AnnotationType<P> type) {
+    AnnotationCache cache = AnnotationCache.active();
+    for (AnnotationMirror annotation : construct.getAnnotationMirrors()) {
+      TypeElement annotationInterface = annotationInterfaceOf(annotation);
+      if (annotationInterface != null) {
+        for (AnnotationMirror mirror : metaMirrors(annotationInterface, cache)) {
+          if (type.matches(mirror.getAnnotationType())) {
+            return type.proxy(mirror);
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns all meta-annotations of the given type.
+   *
+   * @param construct the annotated construct.
+   * @param type      the type of the meta-annotation.
+   * @return the meta-annotations, nearest first. Annotation interfaces which
+   * are reachable from several annotations contribute their annotations once.
+   * @see #hasMetaAnnotation(AnnotatedConstruct, AnnotationType)
+   */
+  public static <P> @NotNull List<P> findMetaAnnotations(@NotNull AnnotatedConstruct construct, @NotNull AnnotationType<P> type) {
+    List<P> result = new ArrayList<>();
+    Set<AnnotationMirror> found = Collections.newSetFromMap(new IdentityHashMap<>());
+    AnnotationCache cache = AnnotationCache.active();
+    for (AnnotationMirror annotation : construct.getAnnotationMirrors()) {
+      TypeElement annotationInterface = annotationInterfaceOf(annotation);
+      if (annotationInterface != null) {
+        for (AnnotationMirror mirror : metaMirrors(annotationInterface, cache)) {
+          if (type.matches(mirror.getAnnotationType()) && found.add(mirror)) {
+            result.add(type.proxy(mirror));
+          }
+        }
+      }
+    }
+    return Collections.unmodifiableList(result);
+  }
+
   private static <P> @NotNull Stream<P> streamAnnotations(
       @NotNull AnnotatedConstruct construct,
       @NotNull AnnotationType<P> type)
   {
-    return construct.getAnnotationMirrors().stream()
+    AnnotationCache cache = AnnotationCache.active();
+    List<? extends AnnotationMirror> mirrors = cache == null ? null : cache.getIndexedMirrors(construct, type.canonicalName());
+    if (mirrors == null) {
+      mirrors = construct.getAnnotationMirrors();
+    }
+    return mirrors.stream()
         .filter(mirror -> type.matches(mirror.getAnnotationType()))
         .map(type::proxy);
   }
+
+  /**
+   * Returns the annotations of the given class, followed by the inherited
+   * annotations of its superclasses. Like
+   * {@link javax.lang.model.util.Elements#getAllAnnotationMirrors}, but the
+   * result of the superclass is reused while the given cache is not cleared.
+   */
+  private static @NotNull List<AnnotationMirror> inheritedMirrors(@NotNull TypeElement element, @Nullable AnnotationCache cache) {
+    List<AnnotationMirror> result = cache == null ? null : cache.inheritedMirrors().get(element);
+    if (result != null) {
+      return result;
+    }
+    List<? extends AnnotationMirror> present = element.getAnnotationMirrors();
+    boolean complete = true;
+    Set<TypeElement> presentTypes = new HashSet<>();
+    for (AnnotationMirror mirror : present) {
+      TypeElement annotationInterface = annotationInterfaceOf(mirror);
+      if (annotationInterface == null) {
+        complete = false;
+      }
+      else {
+        presentTypes.add(annotationInterface);
+      }
+    }
+    TypeMirror superclass = element.getSuperclass();
+    if (superclass.getKind() != TypeKind.DECLARED) {
+      result = List.copyOf(present);
+      if (cache != null && complete && superclass.getKind() != TypeKind.ERROR) {
+        cache.inheritedMirrors().put(element, result);
+      }
+      return result;
+    }
+    TypeElement superElement = toTypeElement(((DeclaredType) superclass).asElement());
+    result = new ArrayList<>(present);
+    for (AnnotationMirror mirror : inheritedMirrors(superElement, cache)) {
+      TypeElement annotationInterface = annotationInterfaceOf(mirror);
+      if (annotationInterface == null) {
+        complete = false;
+      }
+      else if (!presentTypes.contains(annotationInterface) && isInherited(annotationInterface, cache)) {
+        result.add(mirror);
+      }
+    }
+    result = List.copyOf(result);
+    if (cache != null && complete && cache.inheritedMirrors().containsKey(superElement)) {
+      cache.inheritedMirrors().put(element, result);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the annotations of the given annotation interface, followed by
+   * the annotations of their annotation interfaces, and so on. Each
+   * annotation interface is visited once. The annotation interfaces of
+   * {@code java.lang.annotation} are not visited, as the annotations of
+   * {@link java.lang.annotation.Retention} and the like would otherwise be
+   * meta-annotations of every annotation.
+   */
+  private static @NotNull List<AnnotationMirror> metaMirrors(@NotNull TypeElement annotationInterface, @Nullable AnnotationCache cache) {
+    List<AnnotationMirror> result = cache == null ? null : cache.metaMirrors().get(annotationInterface);
+    if (result != null) {
+      return result;
+    }
+    result = new ArrayList<>();
+    boolean complete = true;
+    Set<TypeElement> visited = new HashSet<>();
+    visited.add(annotationInterface);
+    Queue<TypeElement> queue = new ArrayDeque<>();
+    queue.add(annotationInterface);
+    while (!queue.isEmpty()) {
+      for (AnnotationMirror mirror : queue.remove().getAnnotationMirrors()) {
+        result.add(mirror);
+        TypeElement next = annotationInterfaceOf(mirror);
+        if (next == null) {
+          complete = false;
+        }
+        else if (!isPlatformAnnotation(next) && visited.add(next)) {
+          queue.add(next);
+        }
+      }
+    }
+    result = List.copyOf(result);
+    if (cache != null && complete) {
+      cache.metaMirrors().put(annotationInterface, result);
+    }
+    return result;
+  }
+
+  private static boolean isInherited(@NotNull TypeElement annotationInterface, @Nullable AnnotationCache cache) {
+    Boolean result = cache == null ? null : cache.inheritedTypes().get(annotationInterface);
+    if (result == null) {
+      result = false;
+      for (AnnotationMirror mirror : annotationInterface.getAnnotationMirrors()) {
+        TypeElement element = toTypeElement(mirror.getAnnotationType().asElement());
+        if (element.getQualifiedName().contentEquals("java.lang.annotation.Inherited")) {
+          result = true;
+          break;
+        }
+      }
+      if (cache != null) {
+        cache.inheritedTypes().put(annotationInterface, result);
+      }
+    }
+    return result;
+  }
+
+  private static boolean isPlatformAnnotation(@NotNull TypeElement annotationInterface) {
+    return annotationInterface.getQualifiedName().toString().startsWith("java.lang.annotation.");
+  }
+
+  /**
+   * Returns the annotation interface of the given annotation, or
+   * {@code null} if it cannot be resolved yet.
+   */
+  private static @Nullable TypeElement annotationInterfaceOf(@NotNull AnnotationMirror mirror) {
+    DeclaredType annotationType = mirror.getAnnotationType();
+    return annotationType.getKind() == TypeKind.ERROR ? null : toTypeElement(annotationType.asElement());
+  }
 }
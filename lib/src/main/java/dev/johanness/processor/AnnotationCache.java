@@ -0,0 +1,179 @@
+package dev.johanness.processor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.lang.model.AnnotatedConstruct;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.TypeElement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static dev.johanness.processor.ElementCast.toTypeElement;
+
+/**
+ * Cache for the queries of {@link AnnotationAccess}. The queries use the
+ * cache which is {@linkplain #activate() active} on the current thread, and
+ * do not memoize anything if there is none. Besides the optional
+ * {@linkplain #enableMirrorIndex(int) mirror index}, the cache memoizes the
+ * inherited annotations of classes and the meta-annotations of annotation
+ * interfaces. The compiler keeps the elements across rounds, but the
+ * annotation mirrors, and therefore the memos built from them, may change
+ * in the next round, e.g. once annotation interfaces which are generated in
+ * this round can be resolved. The cache must therefore be
+ * {@linkplain #clear() cleared} at the end of each round.
+ * {@link dev.johanness.processor.segmented.SegmentedExecutor} owns a cache,
+ * which is active while its tasks are running.
+ */
+public final class AnnotationCache {
+  private static final @NotNull ThreadLocal<AnnotationCache> ACTIVE = new ThreadLocal<>();
+
+  private volatile @Nullable MirrorIndex mirrorIndex;
+  // Memoized results of AnnotationAccess.inheritedMirrors, metaMirrors and
+  // isInherited. Results which depend on types that cannot be resolved yet
+  // are not memoized.
+  private final @NotNull Map<TypeElement, List<AnnotationMirror>> inheritedMirrors = new ConcurrentHashMap<>();
+  private final @NotNull Map<TypeElement, List<AnnotationMirror>> metaMirrors = new ConcurrentHashMap<>();
+  private final @NotNull Map<TypeElement, Boolean> inheritedTypes = new ConcurrentHashMap<>();
+
+  public AnnotationCache() {
+  }
+
+  /**
+   * Enables an index of the annotation mirrors of the most recently queried
+   * constructs. The mirrors of a construct are grouped by the name of their
+   * annotation interface when the construct is queried for the first time.
+   *
+   * @param maxSize the maximum number of indexed constructs.
+   */
+  public void enableMirrorIndex(int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Size must be positive: " + maxSize);
+    }
+    mirrorIndex = new MirrorIndex(maxSize);
+  }
+
+  public void disableMirrorIndex() {
+    mirrorIndex = null;
+  }
+
+  /**
+   * Removes all entries from the cache.
+   */
+  public void clear() {
+    MirrorIndex index = mirrorIndex;
+    if (index != null) {
+      index.clear();
+    }
+    inheritedMirrors.clear();
+    metaMirrors.clear();
+    inheritedTypes.clear();
+  }
+
+  /**
+   * Makes this cache the active cache of the current thread until the
+   * returned scope is closed. Scopes may be nested.
+   *
+   * @return the scope, which restores the previously active cache.
+   */
+  public @NotNull Scope activate() {
+    AnnotationCache previous = ACTIVE.get();
+    ACTIVE.set(this);
+    return () -> {
+      if (previous == null) {
+        ACTIVE.remove();
+      }
+      else {
+        ACTIVE.set(previous);
+      }
+    };
+  }
+
+  static @Nullable AnnotationCache active() {
+    return ACTIVE.get();
+  }
+
+  /**
+   * Returns the mirrors of the given construct whose annotation interface has
+   * the given name, or {@code null} if the index is disabled.
+   */
+  @Nullable List<AnnotationMirror> getIndexedMirrors(@NotNull AnnotatedConstruct construct, @NotNull String name) {
+    MirrorIndex index = mirrorIndex;
+    return index == null ? null : index.get(construct, name);
+  }
+
+  @NotNull Map<TypeElement, List<AnnotationMirror>> inheritedMirrors() {
+    return inheritedMirrors;
+  }
+
+  @NotNull Map<TypeElement, List<AnnotationMirror>> metaMirrors() {
+    return metaMirrors;
+  }
+
+  @NotNull Map<TypeElement, Boolean> inheritedTypes() {
+    return inheritedTypes;
+  }
+
+  /**
+   * Scope in which a cache is active.
+   *
+   * @see #activate()
+   */
+  public interface Scope extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  private static final class MirrorIndex {
+    private final @NotNull Map<Identity, Map<String, List<AnnotationMirror>>> constructs;
+
+    private MirrorIndex(int maxSize) {
+      constructs = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Identity, Map<String, List<AnnotationMirror>>> eldest) {
+          return size() > maxSize;
+        }
+      };
+    }
+
+    private synchronized @NotNull List<AnnotationMirror> get(@NotNull AnnotatedConstruct construct, @NotNull String name) {
+      Identity key = new Identity(construct);
+      Map<String, List<AnnotationMirror>> byName = constructs.get(key);
+      if (byName == null) {
+        byName = new HashMap<>();
+        for (AnnotationMirror mirror : construct.getAnnotationMirrors()) {
+          String mirrorName = toTypeElement(mirror.getAnnotationType().asElement()).getQualifiedName().toString();
+          byName.computeIfAbsent(mirrorName, n -> new ArrayList<>(1)).add(mirror);
+        }
+        constructs.put(key, byName);
+      }
+      return byName.getOrDefault(name, List.of());
+    }
+
+    private synchronized void clear() {
+      constructs.clear();
+    }
+  }
+
+  private static final class Identity {
+    private final @NotNull AnnotatedConstruct construct;
+
+    private Identity(@NotNull AnnotatedConstruct construct) {
+      this.construct = construct;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Identity && ((Identity) obj).construct == construct;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(construct);
+    }
+  }
+}
@@ -4,23 +4,49 @@
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.Processor;
 import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementVisitor;
 import javax.lang.model.element.ModuleElement;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.DeclaredType;
+import javax.lang.model.util.Elements;
 import javax.lang.model.util.SimpleElementVisitor9;
 import java.lang.annotation.*;
+import java.lang.ref.WeakReference;
 import java.util.Objects;
 
 import static dev.johanness.processor.ElementCast.toTypeElement;
 
 public abstract class AnnotationType<P> {
+  private static final @NotNull ElementVisitor<ModuleElement, Void> MODULE_VISITOR = new SimpleElementVisitor9<>(null) {
+    @Override
+    public ModuleElement visitModule(ModuleElement e, Void o) {
+      return e;
+    }
+
+    @Override
+    protected ModuleElement defaultAction(Element e, Void o) {
+      Element enclosingElement = e.getEnclosingElement();
+      return enclosingElement == null ? null : visit(enclosingElement);
+    }
+
+    @Override
+    public ModuleElement visitUnknown(Element e, Void o) {
+      return defaultAction(e, o);
+    }
+  };
+
   private final @NotNull String binaryName;
   private final @NotNull String canonicalName;
   private final @Nullable String moduleName;
   private final @NotNull String nameWithModule;
+  // The references are weak, so instances in static fields do not keep the
+  // compiler alive after the compilation.
+  private volatile @Nullable Binding binding;
+  private volatile @NotNull WeakReference<TypeElement> lastMatch = new WeakReference<>(null);
 
   /**
    * Initializes the instance from the class instance of an annotation.
@@ -98,6 +124,32 @@ protected AnnotationType(@NotNull String binaryName, @Nullable String moduleName
     return nameWithModule;
   }
 
+  /**
+   * Resolves the annotation interface in the given environment. The result is
+   * remembered until the instance is bound to another environment, and speeds
+   * up {@link #matches(DeclaredType)}. If the annotation interface cannot be
+   * resolved, it is resolved again with the next call.
+   *
+   * @param processingEnv the environment of the current compilation.
+   * @return the annotation interface, or {@code null} if it cannot be found.
+   */
+  public final @Nullable TypeElement bind(@NotNull ProcessingEnvironment processingEnv) {
+    Binding binding = this.binding;
+    if (binding != null && binding.processingEnv.get() == processingEnv) {
+      TypeElement element = binding.element.get();
+      if (element != null) {
+        return element;
+      }
+    }
+    Elements elements = processingEnv.getElementUtils();
+    ModuleElement moduleElement = elements.getModuleElement(Objects.requireNonNullElse(moduleName, ""));
+    TypeElement element = moduleElement == null
+        ? elements.getTypeElement(canonicalName)
+        : elements.getTypeElement(moduleElement, canonicalName);
+    this.binding = new Binding(processingEnv, element);
+    return element;
+  }
+
   /**
    * Checks whether the given type matches this annotation type. This method is
    * intended to be used on the return value of
@@ -108,10 +160,20 @@ protected AnnotationType(@NotNull String binaryName, @Nullable String moduleName
    */
   public final boolean matches(@NotNull DeclaredType type) {
     TypeElement element = toTypeElement(type.asElement());
+    Binding binding = this.binding;
+    if (binding != null && binding.element.get() == element || lastMatch.get() == element) {
+      return true;
+    }
     if (element.getQualifiedName().contentEquals(canonicalName)) {
-      ModuleElement module = moduleOf(element);
+      // The element may belong to another compilation than the bound
+      // environment, e.g. if the instance is shared by the compilations of a
+      // daemon. The module is therefore taken from the element itself.
+      ModuleElement module = element.accept(MODULE_VISITOR, null);
       String expectedModuleName = Objects.requireNonNullElse(moduleName, "");
-      return module == null || module.getQualifiedName().contentEquals(expectedModuleName);
+      if (module == null || module.getQualifiedName().contentEquals(expectedModuleName)) {
+        lastMatch = new WeakReference<>(element);
+        return true;
+      }
     }
     return false;
   }
@@ -140,23 +202,13 @@ public final String toString() {
   @ApiStatus.OverrideOnly
   protected abstract @NotNull P createProxy(@NotNull AnnotationMirror mirror);
 
-  private static @Nullable ModuleElement moduleOf(@NotNull Element element) {
-    return element.accept(new SimpleElementVisitor9<>(null) {
-      @Override
-      public ModuleElement visitModule(ModuleElement e, Object o) {
-        return e;
-      }
-
-      @Override
-      protected ModuleElement defaultAction(Element e, Object o) {
-        Element enclosingElement = e.getEnclosingElement();
-        return enclosingElement == null ? null : visit(enclosingElement);
-      }
+  private static final class Binding {
+    private final @NotNull WeakReference<ProcessingEnvironment> processingEnv;
+    private final @NotNull WeakReference<TypeElement> element;
 
-      @Override
-      public ModuleElement visitUnknown(Element e, Object o) {
-        return defaultAction(e, o);
-      }
-    }, null);
+    private Binding(@NotNull ProcessingEnvironment processingEnv, @Nullable TypeElement element) {
+      this.processingEnv = new WeakReference<>(processingEnv);
+      this.element = new WeakReference<>(element);
+    }
   }
 }
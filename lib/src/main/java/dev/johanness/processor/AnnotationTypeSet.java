@@ -0,0 +1,176 @@
+package dev.johanness.processor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.lang.model.AnnotatedConstruct;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.type.DeclaredType;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import static dev.johanness.processor.ElementCast.toTypeElement;
+
+/**
+ * Immutable set of annotation types, which finds the types of an annotation
+ * mirror by the name of its annotation interface. Constructs can therefore
+ * be matched against all types of the set with a single pass over their
+ * annotation mirrors.
+ */
+public final class AnnotationTypeSet extends AbstractSet<AnnotationType<?>> {
+  private static final @NotNull AnnotationType<?> @NotNull [] NONE = new AnnotationType<?>[0];
+
+  private final @NotNull List<AnnotationType<?>> types;
+  // Types by canonical name. Usually only one type per name, but there may
+  // be several for different modules.
+  private final @NotNull Map<String, AnnotationType<?>[]> byName = new HashMap<>();
+  private final @NotNull Set<String> canonicalNames;
+  private final @NotNull Set<String> namesWithModule;
+
+  private AnnotationTypeSet(@NotNull Collection<? extends AnnotationType<?>> types) {
+    this.types = List.copyOf(new LinkedHashSet<>(types));
+    Set<String> canonicalNames = new LinkedHashSet<>();
+    Set<String> namesWithModule = new LinkedHashSet<>();
+    for (AnnotationType<?> type : this.types) {
+      byName.merge(type.canonicalName(), new AnnotationType<?>[]{type}, (first, second) -> {
+        AnnotationType<?>[] result = Arrays.copyOf(first, first.length + 1);
+        result[first.length] = second[0];
+        return result;
+      });
+      canonicalNames.add(type.canonicalName());
+      namesWithModule.add(type.nameWithModule());
+    }
+    this.canonicalNames = Set.copyOf(canonicalNames);
+    this.namesWithModule = Set.copyOf(namesWithModule);
+  }
+
+  public static @NotNull AnnotationTypeSet of(@NotNull AnnotationType<?> @NotNull ... types) {
+    return new AnnotationTypeSet(Arrays.asList(types));
+  }
+
+  public static @NotNull AnnotationTypeSet of(@NotNull Collection<? extends AnnotationType<?>> types) {
+    return types instanceof AnnotationTypeSet ? (AnnotationTypeSet) types : new AnnotationTypeSet(types);
+  }
+
+  /**
+   * Returns the canonical names of the annotation interfaces.
+   *
+   * @return the names as returned by {@link AnnotationType#canonicalName()}.
+   */
+  public @NotNull Set<String> canonicalNames() {
+    return canonicalNames;
+  }
+
+  /**
+   * Returns the names of the annotation interfaces including their modules.
+   *
+   * @return the names as returned by {@link AnnotationType#nameWithModule()}.
+   */
+  public @NotNull Set<String> namesWithModule() {
+    return namesWithModule;
+  }
+
+  /**
+   * Returns the type of this set which matches the given type of an
+   * annotation mirror.
+   *
+   * @param annotationType the value of
+   *                       {@link AnnotationMirror#getAnnotationType()}.
+   * @return the matching type, or {@code null} if there is none.
+   */
+  public @Nullable AnnotationType<?> get(@NotNull DeclaredType annotationType) {
+    for (AnnotationType<?> type : candidates(annotationType)) {
+      if (type.matches(annotationType)) {
+        return type;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Checks whether the given construct is annotated with any of the types of
+   * this set.
+   *
+   * @param construct the annotated construct.
+   * @return whether one of the annotations matches.
+   */
+  public boolean matchesAny(@NotNull AnnotatedConstruct construct) {
+    for (AnnotationMirror mirror : construct.getAnnotationMirrors()) {
+      if (get(mirror.getAnnotationType()) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Calls the given action for each annotation of the given construct which
+   * matches a type of this set. The proxy of an annotation can be obtained
+   * via {@link AnnotationType#proxy(AnnotationMirror)}.
+   *
+   * @param construct the annotated construct.
+   * @param action    the action, which receives the matching type and the
+   *                  annotation mirror.
+   */
+  public void forEachMatch(@NotNull AnnotatedConstruct construct, @NotNull BiConsumer<? super AnnotationType<?>, ? super AnnotationMirror> action) {
+    for (AnnotationMirror mirror : construct.getAnnotationMirrors()) {
+      DeclaredType annotationType = mirror.getAnnotationType();
+      for (AnnotationType<?> type : candidates(annotationType)) {
+        if (type.matches(annotationType)) {
+          action.accept(type, mirror);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the types of this set which match an annotation of the given
+   * construct.
+   *
+   * @param construct the annotated construct.
+   * @return the matching types, in the order of the annotations.
+   */
+  public @NotNull List<AnnotationType<?>> findTypes(@NotNull AnnotatedConstruct construct) {
+    List<AnnotationType<?>> result = new ArrayList<>();
+    forEachMatch(construct, (type, mirror) -> {
+      if (!result.contains(type)) {
+        result.add(type);
+      }
+    });
+    return result;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (!(o instanceof AnnotationType)) {
+      return false;
+    }
+    AnnotationType<?>[] candidates = byName.get(((AnnotationType<?>) o).canonicalName());
+    return candidates != null && Arrays.asList(candidates).contains(o);
+  }
+
+  @Override
+  public @NotNull Iterator<AnnotationType<?>> iterator() {
+    return types.iterator();
+  }
+
+  @Override
+  public int size() {
+    return types.size();
+  }
+
+  private @NotNull AnnotationType<?> @NotNull [] candidates(@NotNull DeclaredType annotationType) {
+    String name = toTypeElement(annotationType.asElement()).getQualifiedName().toString();
+    AnnotationType<?>[] candidates = byName.get(name);
+    return candidates == null ? NONE : candidates;
+  }
+}
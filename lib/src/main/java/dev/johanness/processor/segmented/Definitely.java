@@ -1,5 +1,6 @@
 package dev.johanness.processor.segmented;
 
+import dev.johanness.processor.segmented._internal.KeyValues;
 import dev.johanness.processor.segmented._internal.Task;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
@@ -9,16 +10,24 @@
 import javax.annotation.processing.Messager;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.Element;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.NoSuchElementException;
 import java.util.function.Supplier;
 
 public final class Definitely {
+  private final @NotNull SegmentedExecutor executor;
   private final @NotNull Task<?> task;
   private final @NotNull ProcessingEnvironment processingEnv;
   private final @NotNull RoundEnvironment roundEnv;
 
-  Definitely(@NotNull Task<?> task, @NotNull ProcessingEnvironment processingEnv, @NotNull RoundEnvironment roundEnv) {
+  Definitely(@NotNull SegmentedExecutor executor, @NotNull Task<?> task, @NotNull RoundEnvironment roundEnv) {
+    this.executor = executor;
     this.task = task;
-    this.processingEnv = processingEnv;
+    this.processingEnv = executor.getProcessingEnv();
     this.roundEnv = roundEnv;
   }
 
@@ -31,7 +40,75 @@ public final class Definitely {
   }
 
   public @NotNull Filer filer() {
-    return processingEnv.getFiler();
+    return executor.getFiler();
+  }
+
+  /**
+   * Returns the index of the subtypes of the classes and interfaces of all
+   * rounds so far.
+   *
+   * @return the subtype index.
+   */
+  public @NotNull SubtypeIndex subtypeIndex() {
+    return executor.getSubtypeIndex();
+  }
+
+  /**
+   * Announces a type which this action is about to generate. Other tasks can
+   * use it via {@link Preliminary#getProvisionalType(String)} until the
+   * compiler knows the type in one of the next rounds. Tasks which are
+   * {@linkplain Preliminary#blockOn(String) blocked} on the type are run
+   * again in the current round.
+   *
+   * @param type the type.
+   */
+  public void announceType(@NotNull ProvisionalType type) {
+    executor.announceType(type);
+  }
+
+  /**
+   * Runs the given renderer on a worker thread, and passes its result to the
+   * given writer on the thread of the annotation processing round. The
+   * writers run before the end of the round, in the order in which they were
+   * passed to this method. The renderer must not access the elements or
+   * types of the compiler, as they are not thread-safe.
+   *
+   * @param renderer the job which builds the content, e.g. the source code.
+   * @param writer   the action which writes the content, e.g. via
+   *                 {@link #filer()}.
+   */
+  public <T> void render(@NotNull Supplier<T> renderer, @NotNull Action<T> writer) {
+    executor.getRenderQueue().submit(renderer, result -> writer.run(result, this));
+  }
+
+  /**
+   * Creates a source file with the content built by the given renderer.
+   * Unlike {@link Filer#createSourceFile(CharSequence, Element...)}, the
+   * content is built on a worker thread, see
+   * {@link #render(Supplier, Action)}. Failures to write the file are
+   * reported as errors.
+   *
+   * @param name                the name of the type, as for
+   *                            {@link Filer#createSourceFile(CharSequence, Element...)}.
+   * @param renderer            the job which builds the source code.
+   * @param originatingElements the originating elements of the file.
+   */
+  public void writeSourceFile(@NotNull CharSequence name, @NotNull Supplier<? extends CharSequence> renderer, @NotNull Element @NotNull ... originatingElements) {
+    render(renderer, (content, definitely) -> {
+      try {
+        JavaFileObject sourceFile = filer().createSourceFile(name, originatingElements);
+        try (Writer writer = sourceFile.openWriter()) {
+          writer.append(content);
+        }
+        catch (IOException | RuntimeException e) {
+          sourceFile.delete();
+          throw e;
+        }
+      }
+      catch (IOException e) {
+        messager().printMessage(Diagnostic.Kind.ERROR, "Cannot write " + name + ": " + e.getLocalizedMessage());
+      }
+    });
   }
 
   public boolean processingOver() {
@@ -39,24 +116,46 @@ public boolean processingOver() {
   }
 
   public <T> @NotNull T get(@NotNull Key<T> key) {
-    return task.getMap().get(key);
+    T result = getOrNull(key);
+    if (result == null) {
+      throw new NoSuchElementException(key.toString());
+    }
+    return result;
   }
 
   public <T> @Nullable T getOrNull(@NotNull Key<T> key) {
-    return task.getMap().getOrNull(key);
+    return task.getValues().get(key, executor.getGlobals());
   }
 
   @Contract("_, null -> null; _, !null -> param2")
   public <T> @Nullable T set(@NotNull Key<T> key, @Nullable T value) {
-    task.getMap().set(key, value);
+    KeyValues previous = task.getValues();
+    task.setValues(previous.with(key, value));
+    executor.setValue(task, key, previous);
+    return value;
+  }
+
+  /**
+   * Sets the value of the key at the root of the task tree. The value becomes
+   * visible to all tasks which have not set their own value for the key. Tasks
+   * which are {@linkplain Preliminary#blockOn(Key) blocked} on the key are run
+   * again within the current round.
+   *
+   * @param key   the key.
+   * @param value the new value.
+   * @return the given value.
+   */
+  @Contract("_, null -> null; _, !null -> param2")
+  public <T> @Nullable T setGlobal(@NotNull Key<T> key, @Nullable T value) {
+    executor.setGlobal(task, key, value);
     return value;
   }
 
   public <T> @NotNull T setDefault(@NotNull Key<T> key, @NotNull Supplier<T> factory) {
-    T result = task.getMap().getOrNull(key);
+    T result = getOrNull(key);
     if (result == null) {
       result = factory.get();
-      task.getMap().set(key, result);
+      set(key, result);
     }
     return result;
   }
@@ -0,0 +1,166 @@
+package dev.johanness.processor.segmented;
+
+import dev.johanness.processor.AnnotationType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.ModuleElement;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.util.Elements;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static dev.johanness.processor.ElementCast.toTypeElement;
+
+/**
+ * Index of the elements of the current round. The index covers the root
+ * elements of the round and the elements enclosed by them, but not the
+ * elements enclosed by packages or modules, like
+ * {@link RoundEnvironment#getElementsAnnotatedWith(TypeElement)}. It is
+ * built once per round when it is first requested via
+ * {@link Preliminary#elementIndex()}, so the roots which are generated for
+ * the next round are covered by the index of the next round.
+ */
+public final class ElementIndex {
+  private final @NotNull Elements elements;
+  private final @NotNull Map<TypeElement, List<Element>> byAnnotation = new LinkedHashMap<>();
+  private final @NotNull Map<String, List<TypeElement>> annotationsByName = new HashMap<>();
+  private final @NotNull Map<PackageElement, Map<ElementKind, List<Element>>> byPackage = new HashMap<>();
+  private final @NotNull Map<ModuleElement, List<Element>> rootsByModule = new HashMap<>();
+
+  private ElementIndex(@NotNull Elements elements) {
+    this.elements = elements;
+  }
+
+  static @NotNull ElementIndex build(@NotNull Elements elements, @NotNull Collection<? extends Element> rootElements) {
+    ElementIndex index = new ElementIndex(elements);
+    for (Element root : rootElements) {
+      ModuleElement module = elements.getModuleOf(root);
+      if (module != null) {
+        index.rootsByModule.computeIfAbsent(module, m -> new ArrayList<>()).add(root);
+      }
+      PackageElement packageElement = elements.getPackageOf(root);
+      Map<ElementKind, List<Element>> byKind = packageElement == null
+          ? null
+          : index.byPackage.computeIfAbsent(packageElement, p -> new EnumMap<>(ElementKind.class));
+      index.add(root, byKind);
+    }
+    return index;
+  }
+
+  /**
+   * Returns the elements annotated with the given annotation type, including
+   * the classes which inherit the annotation from their superclass.
+   *
+   * @param type the annotation type.
+   * @return the annotated elements.
+   */
+  public @NotNull List<Element> getElementsAnnotatedWith(@NotNull AnnotationType<?> type) {
+    List<TypeElement> candidates = annotationsByName.get(type.canonicalName());
+    if (candidates == null) {
+      return List.of();
+    }
+    if (candidates.size() == 1) {
+      TypeElement annotation = candidates.get(0);
+      return type.matches((DeclaredType) annotation.asType()) ? getElementsAnnotatedWith(annotation) : List.of();
+    }
+    // Annotation interfaces with the same name in different modules.
+    List<Element> result = new ArrayList<>();
+    for (TypeElement annotation : candidates) {
+      if (type.matches((DeclaredType) annotation.asType())) {
+        result.addAll(byAnnotation.get(annotation));
+      }
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Returns the elements annotated with the given annotation interface,
+   * including the classes which inherit the annotation from their
+   * superclass.
+   *
+   * @param annotation the annotation interface.
+   * @return the annotated elements.
+   */
+  public @NotNull List<Element> getElementsAnnotatedWith(@NotNull TypeElement annotation) {
+    List<Element> result = byAnnotation.get(annotation);
+    return result == null ? List.of() : Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Returns the elements of the given kind within the given package.
+   *
+   * @param packageElement the package.
+   * @param kind           the kind of the elements.
+   * @return the elements.
+   */
+  public @NotNull List<Element> getElements(@NotNull PackageElement packageElement, @NotNull ElementKind kind) {
+    Map<ElementKind, List<Element>> byKind = byPackage.get(packageElement);
+    List<Element> result = byKind == null ? null : byKind.get(kind);
+    return result == null ? List.of() : Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Returns the root elements of the round which belong to the given module.
+   *
+   * @param module the module, which may be the unnamed module.
+   * @return the root elements.
+   */
+  public @NotNull List<Element> getRootElements(@NotNull ModuleElement module) {
+    List<Element> result = rootsByModule.get(module);
+    return result == null ? List.of() : Collections.unmodifiableList(result);
+  }
+
+  private void add(@NotNull Element element, @Nullable Map<ElementKind, List<Element>> byKind) {
+    for (AnnotationMirror mirror : elements.getAllAnnotationMirrors(element)) {
+      TypeElement annotation = toTypeElement(mirror.getAnnotationType().asElement());
+      List<Element> annotated = byAnnotation.get(annotation);
+      if (annotated == null) {
+        annotated = new ArrayList<>();
+        byAnnotation.put(annotation, annotated);
+        annotationsByName.computeIfAbsent(annotation.getQualifiedName().toString(), name -> new ArrayList<>(1)).add(annotation);
+      }
+      annotated.add(element);
+    }
+    if (byKind != null) {
+      byKind.computeIfAbsent(element.getKind(), kind -> new ArrayList<>()).add(element);
+    }
+
+    ElementKind kind = element.getKind();
+    if (kind == ElementKind.PACKAGE || kind == ElementKind.MODULE) {
+      // The enclosed elements are root elements on their own if they are
+      // part of the round.
+      return;
+    }
+    if (kind.isClass() || kind.isInterface()) {
+      for (Element typeParameter : ((TypeElement) element).getTypeParameters()) {
+        add(typeParameter, byKind);
+      }
+    }
+    else if (element instanceof ExecutableElement) {
+      ExecutableElement executable = (ExecutableElement) element;
+      for (Element typeParameter : executable.getTypeParameters()) {
+        add(typeParameter, byKind);
+      }
+      for (Element parameter : executable.getParameters()) {
+        add(parameter, byKind);
+      }
+    }
+    for (Element enclosed : element.getEnclosedElements()) {
+      add(enclosed, byKind);
+    }
+  }
+}
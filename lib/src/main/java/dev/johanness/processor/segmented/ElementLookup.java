@@ -0,0 +1,139 @@
+package dev.johanness.processor.segmented;
+
+import dev.johanness.processor.AnnotationType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ModuleElement;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Cached lookup of types, packages and modules by name. Elements which are
+ * found are cached for the whole compilation. Names which cannot be
+ * resolved are cached until the next round, which may contain the missing
+ * element. The lookup is obtained via {@link ProcessorConfig#elementLookup()}
+ * or {@link Preliminary#elementLookup()}.
+ */
+public final class ElementLookup {
+  private static final @NotNull Object MISSING = new Object();
+
+  private final @NotNull Elements elements;
+  private final @NotNull Map<String, Object> types = new ConcurrentHashMap<>();
+  private final @NotNull Map<String, Object> packages = new ConcurrentHashMap<>();
+  private final @NotNull Map<String, Object> modules = new ConcurrentHashMap<>();
+  private final @NotNull LongAdder hits = new LongAdder();
+  private final @NotNull LongAdder misses = new LongAdder();
+
+  ElementLookup(@NotNull Elements elements) {
+    this.elements = elements;
+  }
+
+  /**
+   * @see Elements#getTypeElement(CharSequence)
+   */
+  public @Nullable TypeElement getTypeElement(@NotNull CharSequence name) {
+    return lookup(types, name.toString(), () -> elements.getTypeElement(name));
+  }
+
+  /**
+   * @see Elements#getTypeElement(ModuleElement, CharSequence)
+   */
+  public @Nullable TypeElement getTypeElement(@NotNull ModuleElement module, @NotNull CharSequence name) {
+    return lookup(types, module.getQualifiedName() + "/" + name, () -> elements.getTypeElement(module, name));
+  }
+
+  /**
+   * Returns the type with the given name, which may be prefixed with the
+   * name of the module and a slash, e.g. {@code java.base/java.lang.Object}.
+   *
+   * @param name the canonical name of the type.
+   * @return the type, or {@code null} if the type or module does not exist.
+   */
+  public @Nullable TypeElement getTypeElementWithModule(@NotNull String name) {
+    int separator = name.indexOf('/');
+    if (separator < 0) {
+      return getTypeElement(name);
+    }
+    ModuleElement module = getModuleElement(name.substring(0, separator));
+    return module == null ? null : getTypeElement(module, name.substring(separator + 1));
+  }
+
+  /**
+   * Resolves the annotation interface like
+   * {@link AnnotationType#bind(ProcessingEnvironment)}, but without binding
+   * the annotation type, and with the names which cannot be resolved cached
+   * until the next round.
+   */
+  @Nullable TypeElement getAnnotationInterface(@NotNull AnnotationType<?> type) {
+    ModuleElement module = getModuleElement(Objects.requireNonNullElse(type.moduleName(), ""));
+    return module == null
+        ? getTypeElement(type.canonicalName())
+        : getTypeElement(module, type.canonicalName());
+  }
+
+  /**
+   * @see Elements#getPackageElement(CharSequence)
+   */
+  public @Nullable PackageElement getPackageElement(@NotNull CharSequence name) {
+    return lookup(packages, name.toString(), () -> elements.getPackageElement(name));
+  }
+
+  /**
+   * @see Elements#getPackageElement(ModuleElement, CharSequence)
+   */
+  public @Nullable PackageElement getPackageElement(@NotNull ModuleElement module, @NotNull CharSequence name) {
+    return lookup(packages, module.getQualifiedName() + "/" + name, () -> elements.getPackageElement(module, name));
+  }
+
+  /**
+   * @see Elements#getModuleElement(CharSequence)
+   */
+  public @Nullable ModuleElement getModuleElement(@NotNull CharSequence name) {
+    return lookup(modules, name.toString(), () -> elements.getModuleElement(name));
+  }
+
+  /**
+   * Returns how often a lookup was answered from the cache.
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * Returns how often a lookup was passed on to {@link Elements}.
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Forgets the names which could not be resolved.
+   */
+  void newRound() {
+    types.values().removeIf(value -> value == MISSING);
+    packages.values().removeIf(value -> value == MISSING);
+    modules.values().removeIf(value -> value == MISSING);
+  }
+
+  private <T extends Element> @Nullable T lookup(@NotNull Map<String, Object> cache, @NotNull String key, @NotNull Supplier<T> resolver) {
+    Object cached = cache.get(key);
+    if (cached != null) {
+      hits.increment();
+      @SuppressWarnings("unchecked") T result = cached == MISSING ? null : (T) cached;
+      return result;
+    }
+    misses.increment();
+    T result = resolver.get();
+    cache.put(key, result == null ? MISSING : result);
+    return result;
+  }
+}
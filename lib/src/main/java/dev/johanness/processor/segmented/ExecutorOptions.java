@@ -0,0 +1,92 @@
+package dev.johanness.processor.segmented;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+
+/**
+ * Options which are supported by every {@link SegmentedProcessor}. They are
+ * applied after {@link SegmentedProcessor#startProcessing(ProcessorConfig)},
+ * so they take precedence over the configuration in code.
+ */
+public final class ExecutorOptions {
+  /**
+   * Number of threads used for the preliminary phases of
+   * {@linkplain ThreadSafe thread-safe} processors.
+   *
+   * @see ProcessorConfig#setParallelism(int)
+   */
+  public static final @NotNull ProcessorOption<@NotNull Integer> PARALLELISM =
+      ProcessorOption.integer("dev.johanness.processor.parallelism", 1);
+
+  /**
+   * Order in which the tasks are run. The value is the name of a
+   * {@link SchedulingStrategy}, e.g. {@code depth_first}.
+   *
+   * @see ProcessorConfig#setSchedulingStrategy(SchedulingStrategy)
+   */
+  public static final @NotNull ProcessorOption<@NotNull SchedulingStrategy> SCHEDULING_STRATEGY =
+      ProcessorOption.enumeration("dev.johanness.processor.schedulingStrategy", SchedulingStrategy.class, SchedulingStrategy.FIFO);
+
+  /**
+   * Maximum number of times a task may be deferred. Tasks which reach the
+   * limit are reported as errors and are not run again. {@code 0} disables
+   * the limit.
+   *
+   * @see ProcessorConfig#setMaxDeferrals(int)
+   */
+  public static final @NotNull ProcessorOption<@NotNull Integer> MAX_DEFERRALS =
+      ProcessorOption.integer("dev.johanness.processor.maxDeferrals", 0);
+
+  /**
+   * Stops retrying a deferred task once it made no progress in two
+   * consecutive rounds. The tasks are reported as errors.
+   *
+   * @see ProcessorConfig#setAbortStalledTasks(boolean)
+   */
+  public static final @NotNull ProcessorOption<@NotNull Boolean> ABORT_STALLED_TASKS =
+      ProcessorOption.flag("dev.johanness.processor.abortStalledTasks");
+
+  /**
+   * Maximum number of entries of the cache for type relations used by
+   * {@link Preliminary#typeUtils()}. {@code 0} disables the cache.
+   *
+   * @see ProcessorConfig#setTypesCacheSize(int)
+   */
+  public static final @NotNull ProcessorOption<@NotNull Integer> TYPES_CACHE_SIZE =
+      ProcessorOption.integer("dev.johanness.processor.typesCacheSize", 0);
+
+  /**
+   * Maximum number of constructs in the index of annotation mirrors used by
+   * {@link dev.johanness.processor.AnnotationAccess}. {@code 0} disables the
+   * index.
+   *
+   * @see ProcessorConfig#setAnnotationIndexSize(int)
+   */
+  public static final @NotNull ProcessorOption<@NotNull Integer> ANNOTATION_INDEX_SIZE =
+      ProcessorOption.integer("dev.johanness.processor.annotationIndexSize", 0);
+
+  /**
+   * Prints statistics about the executed tasks at the end of the last round.
+   */
+  public static final @NotNull ProcessorOption<@NotNull Boolean> METRICS =
+      ProcessorOption.flag("dev.johanness.processor.metrics");
+
+  /**
+   * Writes statistics about the executed tasks as JSON to the given path at
+   * the end of the last round.
+   */
+  public static final @NotNull ProcessorOption<Path> METRICS_JSON =
+      ProcessorOption.path("dev.johanness.processor.metrics.json");
+
+  /**
+   * Verifies the originating elements of files created via
+   * {@link Definitely#filer()}. Only supported by processors with an
+   * {@link IncrementalCategory}.
+   */
+  public static final @NotNull ProcessorOption<@NotNull Boolean> CHECK_ORIGINATING_ELEMENTS =
+      ProcessorOption.flag("dev.johanness.processor.checkOriginatingElements");
+
+  private ExecutorOptions() {
+  }
+}
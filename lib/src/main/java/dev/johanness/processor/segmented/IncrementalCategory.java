@@ -0,0 +1,41 @@
+package dev.johanness.processor.segmented;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Category of a processor for incremental annotation processing in Gradle.
+ * The processor is either registered with this category in
+ * {@code META-INF/gradle/incremental.annotation.processors}, or as
+ * {@code dynamic}, in which case it reports the category via
+ * {@link #gradleOption()}.
+ *
+ * @see <a href="https://docs.gradle.org/current/userguide/java_plugin.html#sec:incremental_annotation_processing">
+ * Incremental annotation processing</a>
+ */
+public enum IncrementalCategory {
+  /**
+   * Each generated file is derived from a single type. The file must be
+   * created with exactly one originating element.
+   */
+  ISOLATING("org.gradle.annotation.processing.isolating"),
+  /**
+   * Generated files may be derived from multiple types.
+   */
+  AGGREGATING("org.gradle.annotation.processing.aggregating");
+
+  private final @NotNull String gradleOption;
+
+  IncrementalCategory(@NotNull String gradleOption) {
+    this.gradleOption = gradleOption;
+  }
+
+  /**
+   * Returns the option which declares the category of a dynamic processor
+   * via {@link javax.annotation.processing.Processor#getSupportedOptions()}.
+   *
+   * @return the name of the option.
+   */
+  public @NotNull String gradleOption() {
+    return gradleOption;
+  }
+}
@@ -1,8 +1,14 @@
 package dev.johanness.processor.segmented;
 
+import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public final class Key<T> {
+  private static final @NotNull AtomicInteger NEXT_ID = new AtomicInteger();
+
+  private final int id = NEXT_ID.getAndIncrement();
   private final @NotNull String description;
 
   public Key() {
@@ -13,6 +19,17 @@ public Key(@NotNull String description) {
     this.description = description;
   }
 
+  /**
+   * Returns a dense, unique number which identifies this key. The numbers are
+   * assigned in the order in which the keys are created, starting at zero.
+   *
+   * @return the number of this key.
+   */
+  @ApiStatus.Internal
+  public int id() {
+    return id;
+  }
+
   @Override
   public String toString() {
     return description.isEmpty() ? super.toString() : "Key{'" + description + "'}";
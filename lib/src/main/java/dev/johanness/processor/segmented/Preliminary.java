@@ -1,9 +1,13 @@
 package dev.johanness.processor.segmented;
 
 import dev.johanness.processor.AnnotationType;
-import dev.johanness.processor.segmented._internal.KeyValueMap;
+import dev.johanness.processor.AnnotationTypeSet;
+import dev.johanness.processor.segmented._internal.ExecutorMetrics;
+import dev.johanness.processor.segmented._internal.KeyValues;
+import dev.johanness.processor.segmented._internal.Reductions;
 import dev.johanness.processor.segmented._internal.Task;
 import dev.johanness.processor.segmented._internal.VisitorInfo;
+import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -18,23 +22,59 @@
 import javax.lang.model.util.Types;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
 import java.util.Set;
 import java.util.function.Supplier;
 
 public final class Preliminary {
+  private final @NotNull SegmentedExecutor executor;
   private final @NotNull Task<?> task;
+  // The sub-processor of the task, or the visitor of a lane.
+  private final @NotNull SubProcessor<?> processor;
   private final @NotNull ProcessingEnvironment processingEnv;
-  private final @NotNull Collection<ActionContainer<?>> actions = new ArrayList<>();
-  private final @NotNull Collection<Task<?>> children = new ArrayList<>();
-  private final @NotNull Collection<Task<?>> finalizers = new ArrayList<>();
-  private final @NotNull KeyValueMap keyValueMap = new KeyValueMap();
+  private final @NotNull KeyValues initialValues;
+  // The global values at the time the task was run.
+  private final @NotNull KeyValues observedGlobals;
+  // The number of announced types at the time the task was run.
+  private final int observedAnnouncements;
+  private @NotNull KeyValues values;
+  // Most tasks only use a few of the following containers. They are
+  // therefore only created when needed.
+  private @Nullable List<ActionContainer<?>> actions;
+  private @Nullable ArrayList<Task<?>> children;
+  private @Nullable List<Task<?>> finalizers;
+  private @Nullable Set<Object> blockers;
+  private @Nullable Reductions contributions;
+  // Enclosed elements which were visited within this task, in the order of
+  // the elements. Either the contributions of an element which does not
+  // need a task of its own, or an InlinedTask.
+  private @Nullable List<Object> enclosed;
+  // Whether one of the enclosed elements has registered actions. They are
+  // applied after this task, so the following elements are not inlined.
+  private boolean enclosedActions;
+  private boolean inlined;
+  private boolean completed;
+  // Whether this is a second run, which is recorded separately.
+  private boolean reevaluation;
 
-  Preliminary(@NotNull Task<?> task, @NotNull ProcessingEnvironment processingEnv) {
+  Preliminary(@NotNull SegmentedExecutor executor, @NotNull Task<?> task) {
+    this(executor, task, task.getSubProcessor(), task.getValues());
+  }
+
+  private Preliminary(@NotNull SegmentedExecutor executor, @NotNull Task<?> task, @NotNull SubProcessor<?> processor, @NotNull KeyValues values) {
+    this.executor = executor;
     this.task = task;
-    this.processingEnv = processingEnv;
-    this.keyValueMap.setFallback(task.getMap());
+    this.processor = processor;
+    this.processingEnv = executor.getProcessingEnv();
+    this.initialValues = values;
+    this.values = values;
+    this.observedGlobals = executor.getGlobals();
+    this.observedAnnouncements = executor.getAnnouncedTypes();
   }
 
   public @NotNull SourceVersion sourceVersion() {
@@ -46,7 +86,36 @@ public final class Preliminary {
   }
 
   public @NotNull Types typeUtils() {
-    return processingEnv.getTypeUtils();
+    return executor.getTypeUtils();
+  }
+
+  /**
+   * Returns the index of the elements of the current round. The index is
+   * built when it is first requested within a round.
+   *
+   * @return the index of the current round.
+   */
+  public @NotNull ElementIndex elementIndex() {
+    return executor.getElementIndex();
+  }
+
+  /**
+   * Returns the index of the subtypes of the classes and interfaces of all
+   * rounds so far.
+   *
+   * @return the subtype index.
+   */
+  public @NotNull SubtypeIndex subtypeIndex() {
+    return executor.getSubtypeIndex();
+  }
+
+  /**
+   * Returns the cached lookup of types, packages and modules by name.
+   *
+   * @return the lookup.
+   */
+  public @NotNull ElementLookup elementLookup() {
+    return executor.getElementLookup();
   }
 
   public @Nullable Locale locale() {
@@ -58,42 +127,170 @@ public final class Preliminary {
   }
 
   public <T> @NotNull T get(@NotNull Key<T> key) {
-    return keyValueMap.get(key);
+    T result = getOrNull(key);
+    if (result == null) {
+      throw new NoSuchElementException(key.toString());
+    }
+    return result;
   }
 
   public <T> @Nullable T getOrNull(@NotNull Key<T> key) {
-    return keyValueMap.getOrNull(key);
+    return values.get(key, executor.getGlobals());
   }
 
   @Contract("_, null -> null; _, !null -> param2")
   public <T> @Nullable T set(@NotNull Key<T> key, @Nullable T value) {
-    keyValueMap.set(key, value);
+    values = values.with(key, value);
     return value;
   }
 
   public <T> @NotNull T setDefault(@NotNull Key<T> key, @NotNull Supplier<T> factory) {
-    T result = keyValueMap.getOrNull(key);
+    T result = getOrNull(key);
     if (result == null) {
       result = factory.get();
-      keyValueMap.set(key, result);
+      set(key, result);
     }
     return result;
   }
 
+  /**
+   * Records that the current task cannot be completed before the given type
+   * is available. If the sub-processor returns {@code false}, the task is not
+   * run again until {@link Elements#getTypeElement(CharSequence)} is able to
+   * resolve the type, or until the type is announced via
+   * {@link Definitely#announceType(ProvisionalType)}. The name may be prefixed
+   * with the module name, using the format of
+   * {@link AnnotationType#nameWithModule()}.
+   *
+   * @param qualifiedName the canonical name of the type.
+   * @see #getProvisionalType(String)
+   */
+  public void blockOn(@NotNull String qualifiedName) {
+    addBlocker(qualifiedName);
+  }
+
+  /**
+   * Returns the type with the given name if it was announced via
+   * {@link Definitely#announceType(ProvisionalType)}, but is not known to the
+   * compiler yet.
+   *
+   * @param qualifiedName the canonical name of the type, optionally prefixed
+   *                      with the module name.
+   * @return the announced type, or {@code null}.
+   */
+  public @Nullable ProvisionalType getProvisionalType(@NotNull String qualifiedName) {
+    return executor.getProvisionalType(qualifiedName);
+  }
+
+  /**
+   * Records that the current task cannot be completed before the given key
+   * has a value. If the sub-processor returns {@code false}, the task is
+   * suspended until the key is visible to the task. It is run again within
+   * the same round once the key is set via
+   * {@link Definitely#setGlobal(Key, Object)}, or via
+   * {@link Definitely#set(Key, Object)} of an ancestor task.
+   *
+   * @param key the key which has no value yet.
+   */
+  public void blockOn(@NotNull Key<?> key) {
+    addBlocker(key);
+  }
+
+  /**
+   * Contributes a partial value to the given key. The value is merged with
+   * the values contributed by the other tasks of the same subtree, and the
+   * result is visible to the finalizers of the ancestors. The contribution is
+   * discarded if the sub-processor returns {@code false}.
+   *
+   * @param key   the key.
+   * @param value the partial value.
+   */
+  public <T> void contribute(@NotNull ReductionKey<T> key, @NotNull T value) {
+    getContributions().add(key, value);
+  }
+
   public <T> void action(T item, @NotNull Action<T> action) {
+    if (actions == null) {
+      actions = new ArrayList<>(1);
+    }
     actions.add(new ActionContainer<>(action, item));
   }
 
   public <T> void process(T item, @NotNull SubProcessor<T> processor) {
+    if (children == null) {
+      children = new ArrayList<>();
+    }
     children.add(new Task<>(processor, item));
   }
 
+  public <T> void processAll(@NotNull Collection<? extends T> items, @NotNull SubProcessor<T> processor) {
+    if (items.isEmpty()) {
+      return;
+    }
+    if (children == null) {
+      children = new ArrayList<>(items.size());
+    }
+    else {
+      children.ensureCapacity(children.size() + items.size());
+    }
+    for (T item : items) {
+      children.add(new Task<>(processor, item));
+    }
+  }
+
+  /**
+   * Processes the given enclosed elements with the given visitor. The
+   * elements are visited within the current task, each with the values of
+   * the current task. Only the elements whose visit returns {@code false},
+   * or registers actions, finalizers or other tasks, get a task of their own.
+   * If the current task has registered actions, all elements get a task of
+   * their own, as the actions may change the values visible to them. For the
+   * same reason, once the visit of an element registers actions, the
+   * remaining elements get a task of their own, which runs after the actions.
+   */
+  @ApiStatus.Internal
+  public void processEnclosed(@NotNull List<? extends Element> elements, @NotNull VisitorInfo visitor) {
+    if (actions != null || inlined && (children != null || finalizers != null)) {
+      processAll(elements, visitor);
+      return;
+    }
+    for (Element element : elements) {
+      if (enclosedActions) {
+        getEnclosed().add(new InlinedTask(new Task<>(visitor, element), null, values.inherit()));
+        continue;
+      }
+      KeyValues laneValues = values.inherit();
+      Preliminary lane = new Preliminary(executor, task, visitor, laneValues);
+      lane.inlined = true;
+      lane.completed = visitor.process(element, lane);
+      ExecutorMetrics metrics = executor.getMetrics();
+      if (metrics != null) {
+        metrics.recordInlined(visitor);
+      }
+      // The actions of a lane which is deferred are not run.
+      enclosedActions = lane.completed && lane.actions != null || lane.enclosedActions;
+      if (lane.completed && lane.actions == null && lane.children == null && lane.finalizers == null) {
+        // Nothing to apply, but some of the enclosed elements of the lane
+        // may still need a task of their own.
+        if (lane.contributions != null) {
+          getEnclosed().add(lane.contributions);
+        }
+        if (lane.enclosed != null) {
+          getEnclosed().addAll(lane.enclosed);
+        }
+      }
+      else {
+        getEnclosed().add(new InlinedTask(new Task<>(visitor, element), lane, laneValues));
+      }
+    }
+  }
+
   public void visit(@NotNull Element element, @NotNull ElementVisitor<Boolean, Preliminary> visitor, boolean recursive) {
     process(element, new VisitorInfo(visitor, null, null, recursive));
   }
 
   public void visit(@NotNull Element element, @NotNull ElementVisitor<Boolean, Preliminary> visitor, @NotNull AnnotationType<?>... annotationTypes) {
-    process(element, new VisitorInfo(visitor, null, Set.of(annotationTypes), true));
+    process(element, new VisitorInfo(visitor, null, AnnotationTypeSet.of(annotationTypes), true));
   }
 
   public void visit(@NotNull Element element, @NotNull ElementVisitor<Boolean, Preliminary> visitor, @NotNull ElementKind... kinds) {
@@ -101,15 +298,193 @@ public void visit(@NotNull Element element, @NotNull ElementVisitor<Boolean, Pre
   }
 
   public <T> void finalize(T item, @NotNull SubProcessor<T> processor) {
+    if (finalizers == null) {
+      finalizers = new ArrayList<>(1);
+    }
     finalizers.add(new Task<>(processor, item));
   }
 
-  void apply(@NotNull RoundEnvironment roundEnv) {
-    Definitely definitely = new Definitely(task, processingEnv, roundEnv);
-    actions.forEach(action -> action.run(definitely));
-    keyValueMap.writeBackToFallback();
-    children.forEach(task::addChild);
-    finalizers.forEach(task::addFinalizer);
+  void run() {
+    ExecutorMetrics metrics = executor.getMetrics();
+    if (metrics == null || processor == Traversal.PROCESSOR) {
+      // The lanes of a traversal are recorded individually.
+      completed = task.run(this);
+    }
+    else {
+      ExecutorMetrics.Sample sample = metrics.start();
+      completed = task.run(this);
+      record(metrics, sample);
+    }
+  }
+
+  /**
+   * Creates a preliminary phase for the given visitor within the same task,
+   * but with the given values. Used by {@link Traversal} to run several
+   * visitors within one task. The result has to be
+   * {@linkplain #apply(Task, RoundEnvironment) applied} to a task which has
+   * the given values.
+   */
+  @NotNull Preliminary newLane(@NotNull VisitorInfo visitor, @NotNull KeyValues values) {
+    Preliminary lane = new Preliminary(executor, task, visitor, values);
+    lane.reevaluation = reevaluation;
+    return lane;
+  }
+
+  /**
+   * Creates a new preliminary phase with the same sub-processor and values,
+   * to be run again because this one is {@linkplain #isOutdated() outdated}.
+   * The metrics record the new run as a re-evaluation.
+   */
+  @NotNull Preliminary newReevaluation() {
+    Preliminary result = new Preliminary(executor, task, processor, initialValues);
+    result.reevaluation = true;
+    return result;
+  }
+
+  void runLane(@NotNull Element element) {
+    VisitorInfo visitor = (VisitorInfo) processor;
+    ExecutorMetrics metrics = executor.getMetrics();
+    if (metrics == null) {
+      completed = visitor.visit(element, this);
+    }
+    else {
+      ExecutorMetrics.Sample sample = metrics.start();
+      completed = visitor.visit(element, this);
+      record(metrics, sample);
+    }
+  }
+
+  boolean isCompleted() {
+    return completed;
+  }
+
+  boolean hasFinalizers() {
+    return finalizers != null;
+  }
+
+  @NotNull Set<Object> getBlockers() {
+    return blockers == null ? Set.of() : blockers;
+  }
+
+  @NotNull KeyValues getObservedGlobals() {
+    return observedGlobals;
+  }
+
+  /**
+   * Returns whether global values were set or types were announced since
+   * this preliminary phase was run. Running it again may then lead to a
+   * different result.
+   */
+  boolean isOutdated() {
+    return observedGlobals != executor.getGlobals() || observedAnnouncements != executor.getAnnouncedTypes();
+  }
+
+  void apply(@NotNull Task<?> target, @NotNull RoundEnvironment roundEnv) {
+    if (actions != null) {
+      ExecutorMetrics metrics = executor.getMetrics();
+      ExecutorMetrics.Sample sample = metrics == null ? null : metrics.start();
+      Definitely definitely = new Definitely(executor, target, roundEnv);
+      for (ActionContainer<?> action : actions) {
+        action.run(definitely);
+      }
+      if (sample != null) {
+        metrics.recordActions(processor, sample);
+      }
+    }
+    // Values set by the actions have been written to the task directly. The
+    // values set during the preliminary phase take precedence.
+    target.setValues(target.getValues().withChanges(initialValues, values));
+    if (contributions != null) {
+      target.contribute(contributions);
+    }
+    if (children != null) {
+      for (Task<?> child : children) {
+        target.addChild(child);
+        executor.schedule(child);
+      }
+    }
+    if (finalizers != null) {
+      for (Task<?> finalizer : finalizers) {
+        target.addFinalizer(finalizer);
+      }
+    }
+  }
+
+  /**
+   * Adds the tasks of elements which were visited within this task, but need
+   * a task of their own, as children of the given task. The tasks are
+   * handled by the executor as if they had been run on their own. The tasks
+   * of elements which were not visited are scheduled instead. The
+   * contributions of the other elements are merged in their place among the
+   * children. Must be called after {@link #apply(Task, RoundEnvironment)}.
+   */
+  void applyInlinedTasks(@NotNull Task<?> target, @NotNull RoundEnvironment roundEnv, @NotNull Queue<Task<?>> nextRound) {
+    if (enclosed == null) {
+      return;
+    }
+    for (Object entry : enclosed) {
+      if (entry instanceof Reductions) {
+        target.contributeAsChild((Reductions) entry);
+        continue;
+      }
+      InlinedTask inlinedTask = (InlinedTask) entry;
+      target.addChild(inlinedTask.task);
+      // The values of the parent element, which may differ from the values
+      // of the target if the parent was visited within the task as well.
+      inlinedTask.task.setValues(inlinedTask.values);
+      if (inlinedTask.preliminary == null) {
+        executor.schedule(inlinedTask.task);
+      }
+      else {
+        executor.handle(inlinedTask.task, inlinedTask.preliminary, roundEnv, nextRound);
+      }
+    }
+  }
+
+  private void record(@NotNull ExecutorMetrics metrics, @NotNull ExecutorMetrics.Sample sample) {
+    if (reevaluation) {
+      metrics.recordReevaluation(processor, sample);
+    }
+    else {
+      metrics.recordRun(processor, sample);
+    }
+  }
+
+  private @NotNull Reductions getContributions() {
+    if (contributions == null) {
+      contributions = new Reductions();
+    }
+    return contributions;
+  }
+
+  private @NotNull List<Object> getEnclosed() {
+    if (enclosed == null) {
+      enclosed = new ArrayList<>();
+    }
+    return enclosed;
+  }
+
+  private void addBlocker(@NotNull Object blocker) {
+    if (blockers == null) {
+      blockers = new LinkedHashSet<>();
+    }
+    blockers.add(blocker);
+  }
+
+  /**
+   * Task of an enclosed element, with the result of its visit within the
+   * enclosing task, or without one if the element has not been visited yet.
+   */
+  private static final class InlinedTask {
+    private final @NotNull Task<Element> task;
+    private final @Nullable Preliminary preliminary;
+    private final @NotNull KeyValues values;
+
+    private InlinedTask(@NotNull Task<Element> task, @Nullable Preliminary preliminary, @NotNull KeyValues values) {
+      this.task = task;
+      this.preliminary = preliminary;
+      this.values = values;
+    }
   }
 
   private static final class ActionContainer<T> {
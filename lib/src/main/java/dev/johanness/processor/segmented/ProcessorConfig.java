@@ -1,5 +1,7 @@
 package dev.johanness.processor.segmented;
 
+import dev.johanness.processor.AnnotationAccess;
+import dev.johanness.processor.AnnotationCache;
 import dev.johanness.processor.AnnotationType;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -8,15 +10,18 @@
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ElementVisitor;
-import javax.lang.model.element.ModuleElement;
 import javax.lang.model.element.TypeElement;
-import javax.lang.model.util.Elements;
-import java.util.Objects;
+import javax.tools.Diagnostic;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public final class ProcessorConfig {
   private final @NotNull ProcessingEnvironment processingEnv;
   private final @NotNull SegmentedExecutor executor;
-  private final @NotNull Preliminary preliminary;
+  private final @NotNull Set<String> declaredOptions = new LinkedHashSet<>();
 
   ProcessorConfig(
       @NotNull ProcessingEnvironment processingEnv,
@@ -24,7 +29,6 @@ public final class ProcessorConfig {
   {
     this.processingEnv = processingEnv;
     this.executor = executor;
-    this.preliminary = executor.getRoot();
   }
 
   public @NotNull ProcessingEnvironment processingEnv() {
@@ -35,8 +39,95 @@ public final class ProcessorConfig {
     return processingEnv.getMessager();
   }
 
+  /**
+   * Returns the cached lookup of types, packages and modules by name, which
+   * is shared with {@link Preliminary#elementLookup()}.
+   *
+   * @return the lookup.
+   */
+  public @NotNull ElementLookup elementLookup() {
+    return executor.getElementLookup();
+  }
+
+  /**
+   * Declares the given option and returns its value. Declared options are
+   * returned by {@link SegmentedProcessor#getSupportedOptions()}, so the
+   * compiler does not warn about them. Invalid values are reported as errors,
+   * and the default value is returned instead.
+   *
+   * @param option the option.
+   * @return the value of the option.
+   */
+  public <T> T getOption(@NotNull ProcessorOption<T> option) {
+    declaredOptions.add(option.name());
+    try {
+      return option.read(processingEnv.getOptions());
+    }
+    catch (IllegalArgumentException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, String.format(
+          "Invalid value for option %s: %s", option.name(), e.getMessage()));
+      return option.defaultValue();
+    }
+  }
+
   public <T> void set(@NotNull Key<T> key, @NotNull T value) {
-    preliminary.set(key, value);
+    executor.setGlobal(key, value);
+  }
+
+  public void setParallelism(int parallelism) {
+    executor.setParallelism(parallelism);
+  }
+
+  public void setSchedulingStrategy(@NotNull SchedulingStrategy schedulingStrategy) {
+    executor.setSchedulingStrategy(schedulingStrategy);
+  }
+
+  /**
+   * Limits how often a task may be deferred. Tasks which reach the limit are
+   * reported as errors and are not run again.
+   *
+   * @param maxDeferrals the limit, or {@code 0} for no limit.
+   */
+  public void setMaxDeferrals(int maxDeferrals) {
+    executor.setMaxDeferrals(maxDeferrals);
+  }
+
+  /**
+   * Stops retrying a deferred task once it made no progress in two
+   * consecutive rounds, i.e. it was deferred again without any change of the
+   * globals. The task is reported as an error. Tasks which wait for a type or
+   * key should use {@link Preliminary#blockOn(String)} or
+   * {@link Preliminary#blockOn(Key)}, they are not affected.
+   */
+  public void setAbortStalledTasks(boolean abortStalledTasks) {
+    executor.setAbortStalledTasks(abortStalledTasks);
+  }
+
+  /**
+   * Memoizes {@link javax.lang.model.util.Types#isSubtype},
+   * {@link javax.lang.model.util.Types#isAssignable} and
+   * {@link javax.lang.model.util.Types#erasure} for the types returned by
+   * {@link Preliminary#typeUtils()}. Types which contain error types or type
+   * variables are not cached.
+   *
+   * @param maxSize the maximum number of cached results, or {@code 0} to
+   *                disable the cache.
+   */
+  public void setTypesCacheSize(int maxSize) {
+    executor.setTypesCacheSize(maxSize);
+  }
+
+  /**
+   * Enables the index of annotation mirrors of {@link AnnotationAccess}
+   * within the tasks of this processor. The index is cleared at the end of
+   * each round.
+   *
+   * @param maxSize the maximum number of indexed constructs, or {@code 0} to
+   *                disable the index.
+   * @see AnnotationCache#enableMirrorIndex(int)
+   */
+  public void setAnnotationIndexSize(int maxSize) {
+    executor.setAnnotationIndexSize(maxSize);
   }
 
   public void addVisitor(@NotNull ElementVisitor<Boolean, Preliminary> visitor, boolean recursive) {
@@ -52,18 +143,59 @@ public void addVisitor(@NotNull ElementVisitor<Boolean, Preliminary> visitor, @N
   }
 
   public <T> void addFinalizer(T item, @NotNull SubProcessor<T> processor) {
-    preliminary.finalize(item, processor);
+    executor.addFinalizer(item, processor);
   }
 
-  public @Nullable TypeElement tryResolveAnnotation(@NotNull AnnotationType<?> type) {
-    Elements elements = processingEnv.getElementUtils();
-    String moduleName = Objects.requireNonNullElse(type.moduleName(), "");
-    ModuleElement moduleElement = elements.getModuleElement(moduleName);
-    if (moduleElement == null) {
-      return elements.getTypeElement(type.canonicalName());
+  @NotNull Set<String> getDeclaredOptions() {
+    return declaredOptions;
+  }
+
+  void applyExecutorOptions(@Nullable IncrementalCategory incrementalCategory) {
+    apply(ExecutorOptions.PARALLELISM, value -> value > 0, "must be positive", executor::setParallelism);
+    apply(ExecutorOptions.SCHEDULING_STRATEGY, executor::setSchedulingStrategy);
+    apply(ExecutorOptions.MAX_DEFERRALS, value -> value >= 0, "must not be negative", executor::setMaxDeferrals);
+    apply(ExecutorOptions.TYPES_CACHE_SIZE, value -> value >= 0, "must not be negative", executor::setTypesCacheSize);
+    apply(ExecutorOptions.ANNOTATION_INDEX_SIZE, value -> value >= 0, "must not be negative", executor::setAnnotationIndexSize);
+    if (getOption(ExecutorOptions.ABORT_STALLED_TASKS)) {
+      executor.setAbortStalledTasks(true);
+    }
+    Path metricsJson = getOption(ExecutorOptions.METRICS_JSON);
+    if (getOption(ExecutorOptions.METRICS) || metricsJson != null) {
+      executor.enableMetrics(metricsJson);
     }
-    else {
-      return elements.getTypeElement(moduleElement, type.canonicalName());
+    if (incrementalCategory != null && getOption(ExecutorOptions.CHECK_ORIGINATING_ELEMENTS)) {
+      executor.checkOriginatingElements(incrementalCategory);
     }
   }
+
+  private <T> void apply(@NotNull ProcessorOption<T> option, @NotNull Consumer<T> setter) {
+    apply(option, value -> true, "", setter);
+  }
+
+  /**
+   * Declares the given option and passes its value to the given setter if the
+   * option is present. Otherwise, the setting of the processor is kept.
+   */
+  private <T> void apply(
+      @NotNull ProcessorOption<T> option,
+      @NotNull Predicate<T> isValid,
+      @NotNull String constraint,
+      @NotNull Consumer<T> setter)
+  {
+    declaredOptions.add(option.name());
+    if (processingEnv.getOptions().containsKey(option.name())) {
+      T value = getOption(option);
+      if (isValid.test(value)) {
+        setter.accept(value);
+      }
+      else {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, String.format(
+            "Invalid value for option %s: %s", option.name(), constraint));
+      }
+    }
+  }
+
+  public @Nullable TypeElement tryResolveAnnotation(@NotNull AnnotationType<?> type) {
+    return executor.getElementLookup().getAnnotationInterface(type);
+  }
 }
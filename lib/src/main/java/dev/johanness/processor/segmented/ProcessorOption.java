@@ -0,0 +1,114 @@
+package dev.johanness.processor.segmented;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Typed processor option, as passed to the compiler via {@code -Aname=value}.
+ * Options are declared by reading them via
+ * {@link ProcessorConfig#getOption(ProcessorOption)}. All declared options
+ * are returned by {@link SegmentedProcessor#getSupportedOptions()}.
+ *
+ * @param <T> the type of the value.
+ * @see ExecutorOptions
+ */
+public final class ProcessorOption<T> {
+  private final @NotNull String name;
+  private final T defaultValue;
+  private final @NotNull Function<@Nullable String, T> parser;
+
+  private ProcessorOption(@NotNull String name, T defaultValue, @NotNull Function<@Nullable String, T> parser) {
+    this.name = name;
+    this.defaultValue = defaultValue;
+    this.parser = parser;
+  }
+
+  /**
+   * Creates an option which is enabled by {@code -Aname} or
+   * {@code -Aname=true}, and disabled by {@code -Aname=false}.
+   */
+  public static @NotNull ProcessorOption<@NotNull Boolean> flag(@NotNull String name) {
+    return new ProcessorOption<>(name, false, value -> {
+      if (value == null || value.isEmpty() || value.equalsIgnoreCase("true")) {
+        return true;
+      }
+      else if (value.equalsIgnoreCase("false")) {
+        return false;
+      }
+      else {
+        throw new IllegalArgumentException("Expected true or false, but got " + value);
+      }
+    });
+  }
+
+  public static @NotNull ProcessorOption<@NotNull Integer> integer(@NotNull String name, int defaultValue) {
+    return new ProcessorOption<>(name, defaultValue, value -> Integer.parseInt(requireValue(value)));
+  }
+
+  public static @NotNull ProcessorOption<String> string(@NotNull String name, @Nullable String defaultValue) {
+    return new ProcessorOption<>(name, defaultValue, ProcessorOption::requireValue);
+  }
+
+  /**
+   * Creates an option whose value is the name of an enum constant. The case
+   * of the value is ignored.
+   */
+  public static <E extends Enum<E>> @NotNull ProcessorOption<@NotNull E> enumeration(@NotNull String name, @NotNull Class<E> type, @NotNull E defaultValue) {
+    return new ProcessorOption<>(name, defaultValue, value -> {
+      String constant = requireValue(value).toUpperCase(Locale.ROOT);
+      for (E candidate : type.getEnumConstants()) {
+        if (candidate.name().equals(constant)) {
+          return candidate;
+        }
+      }
+      throw new IllegalArgumentException("Expected one of " + Arrays.stream(type.getEnumConstants())
+          .map(candidate -> candidate.name().toLowerCase(Locale.ROOT))
+          .collect(Collectors.joining(", ")) + ", but got " + value);
+    });
+  }
+
+  /**
+   * Creates an option whose value is a path in the default file system.
+   * Values which are not a valid path are rejected like other invalid values.
+   */
+  public static @NotNull ProcessorOption<Path> path(@NotNull String name) {
+    return new ProcessorOption<>(name, null, value -> Paths.get(requireValue(value)));
+  }
+
+  public @NotNull String name() {
+    return name;
+  }
+
+  public T defaultValue() {
+    return defaultValue;
+  }
+
+  /**
+   * Reads the value of this option from the given options.
+   *
+   * @throws IllegalArgumentException if the value is invalid.
+   */
+  T read(@NotNull Map<String, String> options) {
+    return options.containsKey(name) ? parser.apply(options.get(name)) : defaultValue;
+  }
+
+  private static @NotNull String requireValue(@Nullable String value) {
+    if (value == null || value.isEmpty()) {
+      throw new IllegalArgumentException("Missing value");
+    }
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return "ProcessorOption{'" + name + "'}";
+  }
+}
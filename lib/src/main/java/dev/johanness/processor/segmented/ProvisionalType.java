@@ -0,0 +1,65 @@
+package dev.johanness.processor.segmented;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.lang.model.element.ElementKind;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Type which is about to be generated. Actions announce such types via
+ * {@link Definitely#announceType(ProvisionalType)}, so other tasks can use
+ * them via {@link Preliminary#getProvisionalType(String)} in the same round,
+ * instead of waiting for the next round in which the compiler knows the
+ * type.
+ */
+public final class ProvisionalType {
+  private final @NotNull String qualifiedName;
+  private final @NotNull ElementKind kind;
+  private final @NotNull Map<String, String> members;
+
+  private ProvisionalType(@NotNull String qualifiedName, @NotNull ElementKind kind, @NotNull Map<String, String> members) {
+    this.qualifiedName = qualifiedName;
+    this.kind = kind;
+    this.members = members;
+  }
+
+  /**
+   * Creates a type with the given members. The members map the names of
+   * fields and methods to the canonical names of their types, or of their
+   * return types respectively.
+   *
+   * @param qualifiedName the canonical name of the type.
+   * @param kind          the kind of the type, e.g. {@link ElementKind#CLASS}.
+   * @param members       the members of the type.
+   * @return the type.
+   */
+  public static @NotNull ProvisionalType of(@NotNull String qualifiedName, @NotNull ElementKind kind, @NotNull Map<String, String> members) {
+    if (!kind.isClass() && !kind.isInterface()) {
+      throw new IllegalArgumentException("Not a kind of type: " + kind);
+    }
+    return new ProvisionalType(qualifiedName, kind, Collections.unmodifiableMap(new LinkedHashMap<>(members)));
+  }
+
+  public @NotNull String qualifiedName() {
+    return qualifiedName;
+  }
+
+  public @NotNull ElementKind kind() {
+    return kind;
+  }
+
+  /**
+   * Returns the names of the members mapped to the canonical names of their
+   * types, in the order in which they were announced.
+   */
+  public @NotNull Map<String, String> members() {
+    return members;
+  }
+
+  @Override
+  public String toString() {
+    return "ProvisionalType{'" + qualifiedName + "'}";
+  }
+}
@@ -0,0 +1,54 @@
+package dev.johanness.processor.segmented;
+
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.BinaryOperator;
+
+/**
+ * Key whose values are aggregated from child tasks to their parents. Tasks
+ * {@linkplain Preliminary#contribute(ReductionKey, Object) contribute}
+ * partial values, which are merged once the subtree of a task has finished.
+ * The finalizers of the task see the merged value via {@link #key()}.
+ * <p>
+ * The contributions of a task are merged before the contributions of its
+ * children, and the contributions of the children in the order in which
+ * the children were created. The result therefore does not depend on the
+ * order in which the tasks are run, as long as the merge function is
+ * associative. The merge function is only called on the thread of the
+ * annotation processing round.
+ *
+ * @param <T> the type of the values.
+ */
+public final class ReductionKey<T> {
+  private final @NotNull Key<T> key;
+  private final @NotNull BinaryOperator<T> merge;
+
+  public ReductionKey(@NotNull BinaryOperator<T> merge) {
+    this("", merge);
+  }
+
+  public ReductionKey(@NotNull String description, @NotNull BinaryOperator<T> merge) {
+    this.key = new Key<>(description);
+    this.merge = merge;
+  }
+
+  /**
+   * Returns the key under which finalizers see the merged value.
+   *
+   * @return the key of the merged value.
+   */
+  public @NotNull Key<T> key() {
+    return key;
+  }
+
+  @ApiStatus.Internal
+  public @NotNull T merge(@NotNull T first, @NotNull T second) {
+    return merge.apply(first, second);
+  }
+
+  @Override
+  public String toString() {
+    return "ReductionKey{" + key + '}';
+  }
+}
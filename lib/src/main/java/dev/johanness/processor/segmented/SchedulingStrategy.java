@@ -0,0 +1,28 @@
+package dev.johanness.processor.segmented;
+
+/**
+ * Order in which a {@link SegmentedExecutor} runs its tasks. The strategy
+ * does not change which tasks are run within a round, but it affects how
+ * many tasks are alive at the same time and how often tasks are deferred.
+ *
+ * @see ProcessorConfig#setSchedulingStrategy(SchedulingStrategy)
+ */
+public enum SchedulingStrategy {
+  /**
+   * Runs the tasks in the order in which they were created. The element tree
+   * is therefore traversed breadth-first.
+   */
+  FIFO,
+  /**
+   * Runs the tasks created by a task before any other task. The element tree
+   * is therefore traversed depth-first, which keeps the number of tasks alive
+   * at the same time low.
+   */
+  DEPTH_FIRST,
+  /**
+   * Runs the tasks of sub-processors first which have previously unblocked
+   * tasks, by setting a global value the tasks were
+   * {@linkplain Preliminary#blockOn(Key) blocked on}.
+   */
+  PRIORITY
+}
@@ -1,21 +1,44 @@
 package dev.johanness.processor.segmented;
 
+import dev.johanness.processor.AnnotationCache;
 import dev.johanness.processor.AnnotationType;
+import dev.johanness.processor.AnnotationTypeSet;
+import dev.johanness.processor.segmented._internal.CachingTypes;
+import dev.johanness.processor.segmented._internal.CheckedFiler;
+import dev.johanness.processor.segmented._internal.ExecutorMetrics;
+import dev.johanness.processor.segmented._internal.KeyValues;
+import dev.johanness.processor.segmented._internal.RenderQueue;
 import dev.johanness.processor.segmented._internal.Task;
+import dev.johanness.processor.segmented._internal.TaskQueue;
 import dev.johanness.processor.segmented._internal.VisitorInfo;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import javax.annotation.processing.Filer;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ElementVisitor;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
+import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
 
 public final class SegmentedExecutor {
   private static final @NotNull SubProcessor<?> FAKE_PROCESSOR = (item, preliminary) -> {
@@ -24,81 +47,673 @@ public final class SegmentedExecutor {
 
   private final @NotNull ProcessingEnvironment processingEnv;
   private final @NotNull Task<?> rootTask = new Task<>(FAKE_PROCESSOR, null);
-  private final @NotNull Task<?> fakeChild = new Task<>(FAKE_PROCESSOR, null);
-  private final @NotNull Queue<Task<?>> queue = new ArrayDeque<>();
-  private final @NotNull List<SubProcessor<? super Element>> rootProcessors = new ArrayList<>();
+  private @NotNull TaskQueue queue = TaskQueue.create(SchedulingStrategy.FIFO);
+  private final @NotNull Consumer<Task<?>> scheduler = this::schedule;
+  private final @NotNull List<VisitorInfo> rootVisitors = new ArrayList<>();
+  private final @NotNull Map<String, List<BlockedTask>> blockedOnTypes = new LinkedHashMap<>();
+  private final @NotNull Map<Key<?>, List<BlockedTask>> blockedOnKeys = new LinkedHashMap<>();
+  private final @NotNull Map<AnnotationType<?>, TypeElement> resolvedAnnotations = new HashMap<>();
+  private final @NotNull RenderQueue renderQueue = new RenderQueue();
+  // Written on the round thread only, but read by worker threads.
+  private final @NotNull Map<String, ProvisionalType> provisionalTypes = new ConcurrentHashMap<>();
+  // Written on the round thread only, but read by worker threads.
+  private volatile int announcedTypes;
+  private @Nullable ExecutorMetrics metrics;
+  private @Nullable CheckedFiler checkedFiler;
+  // Written on the round thread only, but read by worker threads.
+  private volatile @NotNull KeyValues globals = KeyValues.empty();
+  private int parallelism = 1;
+  private int maxDeferrals;
+  private boolean abortStalledTasks;
+  private @Nullable ForkJoinPool pool;
+  private @Nullable RoundEnvironment currentRound;
+  private @Nullable ElementIndex elementIndex;
+  private final @NotNull SubtypeIndex subtypeIndex = new SubtypeIndex();
+  // Root elements of the rounds which were not added to the subtype index
+  // yet. The index is only updated when it is used.
+  private final @NotNull List<Element> unindexedRoots = new ArrayList<>();
+  private boolean subtypeIndexOutdated;
+  private @Nullable CachingTypes cachingTypes;
+  private final @NotNull AnnotationCache annotationCache = new AnnotationCache();
+  private final @NotNull ElementLookup elementLookup;
 
   public SegmentedExecutor(@NotNull ProcessingEnvironment processingEnv) {
     this.processingEnv = processingEnv;
-    rootTask.addChild(fakeChild);
+    this.elementLookup = new ElementLookup(processingEnv.getElementUtils());
   }
 
   public @NotNull Preliminary getRoot() {
-    return new Preliminary(rootTask, processingEnv);
+    return new Preliminary(this, rootTask);
+  }
+
+  @NotNull ProcessingEnvironment getProcessingEnv() {
+    return processingEnv;
+  }
+
+  /**
+   * Verifies the originating elements of all files created via
+   * {@link Definitely#filer()} according to the given category.
+   */
+  void checkOriginatingElements(@NotNull IncrementalCategory category) {
+    checkedFiler = new CheckedFiler(processingEnv.getFiler(), processingEnv.getMessager(), category);
+  }
+
+  @NotNull Filer getFiler() {
+    return checkedFiler == null ? processingEnv.getFiler() : checkedFiler;
+  }
+
+  /**
+   * Records statistics about the executed tasks. The report is printed at the
+   * end of the last round, or written as JSON to the given path.
+   */
+  void enableMetrics(@Nullable Path jsonPath) {
+    metrics = new ExecutorMetrics(jsonPath);
+  }
+
+  /**
+   * Returns the type utilities for the sub-processors, which memoize type
+   * relations if enabled via {@link #setTypesCacheSize(int)}.
+   */
+  @NotNull Types getTypeUtils() {
+    return cachingTypes == null ? processingEnv.getTypeUtils() : cachingTypes;
+  }
+
+  @NotNull ElementLookup getElementLookup() {
+    return elementLookup;
+  }
+
+  @NotNull RenderQueue getRenderQueue() {
+    return renderQueue;
+  }
+
+  /**
+   * Returns the index of the current round. The index is built on first use,
+   * which may happen on a worker thread.
+   */
+  synchronized @NotNull ElementIndex getElementIndex() {
+    if (elementIndex == null) {
+      if (currentRound == null) {
+        throw new IllegalStateException("No round in progress");
+      }
+      elementIndex = ElementIndex.build(processingEnv.getElementUtils(), currentRound.getRootElements());
+    }
+    return elementIndex;
+  }
+
+  /**
+   * Returns the subtype index, after adding the roots of the rounds since it
+   * was last used.
+   */
+  synchronized @NotNull SubtypeIndex getSubtypeIndex() {
+    if (subtypeIndexOutdated) {
+      subtypeIndex.addRound(unindexedRoots);
+      unindexedRoots.clear();
+      subtypeIndexOutdated = false;
+    }
+    return subtypeIndex;
+  }
+
+  @Nullable ExecutorMetrics getMetrics() {
+    return metrics;
+  }
+
+  @NotNull KeyValues getGlobals() {
+    return globals;
+  }
+
+  <T> void setGlobal(@NotNull Key<T> key, @Nullable T value) {
+    globals = globals.with(key, value);
+  }
+
+  /**
+   * Sets the global value of the key on behalf of the given task. Tasks
+   * blocked on the key are run again within the current round.
+   */
+  <T> void setGlobal(@NotNull Task<?> source, @NotNull Key<T> key, @Nullable T value) {
+    setGlobal(key, value);
+    List<BlockedTask> blockedTasks = blockedOnKeys.get(key);
+    if (value != null && blockedTasks != null) {
+      queue.markUnblocking(source.getSubProcessor());
+      if (wake(key, blockedTasks)) {
+        blockedOnKeys.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Called after the given task has set the value of the key. The value is
+   * passed on to the blocked descendants of the task which inherited the
+   * previous value, and which are run again within the current round.
+   */
+  <T> void setValue(@NotNull Task<?> source, @NotNull Key<T> key, @NotNull KeyValues previous) {
+    List<BlockedTask> blockedTasks = blockedOnKeys.get(key);
+    T value = source.getValues().get(key);
+    if (value == null || blockedTasks == null) {
+      return;
+    }
+    for (BlockedTask blocked : blockedTasks) {
+      KeyValues values = blocked.task.getValues();
+      if (isDescendant(blocked.task, source) &&
+          values.contains(key) == previous.contains(key) &&
+          values.get(key) == previous.get(key)) {
+        blocked.task.setValues(values.with(key, value));
+      }
+    }
+    queue.markUnblocking(source.getSubProcessor());
+    if (wake(key, blockedTasks)) {
+      blockedOnKeys.remove(key);
+    }
+  }
+
+  void announceType(@NotNull ProvisionalType type) {
+    String name = type.qualifiedName();
+    provisionalTypes.put(name, type);
+    announcedTypes++;
+    blockedOnTypes.entrySet().removeIf(entry -> {
+      if (!withoutModule(entry.getKey()).equals(name)) {
+        return false;
+      }
+      entry.getValue().forEach(this::unblock);
+      return true;
+    });
+  }
+
+  @Nullable ProvisionalType getProvisionalType(@NotNull String name) {
+    return provisionalTypes.get(withoutModule(name));
+  }
+
+  /**
+   * Returns how many types have been announced so far. Used to detect
+   * whether a task was run before a type was announced.
+   */
+  int getAnnouncedTypes() {
+    return announcedTypes;
+  }
+
+  <T> void addFinalizer(T item, @NotNull SubProcessor<T> processor) {
+    rootTask.addFinalizer(new Task<>(processor, item));
+  }
+
+  void schedule(@NotNull Task<?> task) {
+    queue.add(task);
+  }
+
+  public void setParallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+    }
+    this.parallelism = parallelism;
+  }
+
+  public void setSchedulingStrategy(@NotNull SchedulingStrategy schedulingStrategy) {
+    if (!queue.isEmpty()) {
+      throw new IllegalStateException("Cannot change the scheduling strategy while tasks are queued");
+    }
+    this.queue = TaskQueue.create(schedulingStrategy);
+  }
+
+  public void setMaxDeferrals(int maxDeferrals) {
+    if (maxDeferrals < 0) {
+      throw new IllegalArgumentException("Limit must not be negative: " + maxDeferrals);
+    }
+    this.maxDeferrals = maxDeferrals;
+  }
+
+  public void setAbortStalledTasks(boolean abortStalledTasks) {
+    this.abortStalledTasks = abortStalledTasks;
+  }
+
+  public void setAnnotationIndexSize(int maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("Size must not be negative: " + maxSize);
+    }
+    if (maxSize == 0) {
+      annotationCache.disableMirrorIndex();
+    }
+    else {
+      annotationCache.enableMirrorIndex(maxSize);
+    }
+  }
+
+  public void setTypesCacheSize(int maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("Size must not be negative: " + maxSize);
+    }
+    this.cachingTypes = maxSize == 0 ? null : new CachingTypes(processingEnv.getTypeUtils(), maxSize);
   }
 
   public void addVisitor(@NotNull ElementVisitor<Boolean, Preliminary> visitor, boolean recursive) {
-    rootProcessors.add(new VisitorInfo(visitor, null, null, recursive));
+    rootVisitors.add(new VisitorInfo(visitor, null, null, recursive));
   }
 
   public void addVisitor(@NotNull ElementVisitor<Boolean, Preliminary> visitor, @NotNull AnnotationType<?>... annotationTypes) {
-    rootProcessors.add(new VisitorInfo(visitor, null, Set.of(annotationTypes), true));
+    rootVisitors.add(new VisitorInfo(visitor, null, AnnotationTypeSet.of(annotationTypes), true));
   }
 
   public void addVisitor(@NotNull ElementVisitor<Boolean, Preliminary> visitor, @NotNull ElementKind... kinds) {
-    rootProcessors.add(new VisitorInfo(visitor, Set.of(kinds), null, true));
+    rootVisitors.add(new VisitorInfo(visitor, Set.of(kinds), null, true));
   }
 
   public void process(@NotNull RoundEnvironment roundEnv) {
-    for (SubProcessor<? super Element> processor : rootProcessors) {
-      for (Element element : roundEnv.getRootElements()) {
-        Task<?> task = new Task<>(processor, element);
-        rootTask.addChild(task);
-        queue.add(task);
-      }
+    AnnotationCache.Scope scope = annotationCache.activate();
+    try {
+      processRound(roundEnv);
     }
+    finally {
+      scope.close();
+      // The annotation mirrors, and the memos built from them, may change
+      // in the next round.
+      annotationCache.clear();
+    }
+  }
+
+  private void processRound(@NotNull RoundEnvironment roundEnv) {
+    if (metrics != null) {
+      metrics.startRound();
+    }
+    if (checkedFiler != null) {
+      checkedFiler.addRootElements(roundEnv.getRootElements());
+    }
+    synchronized (this) {
+      currentRound = roundEnv;
+      elementIndex = null;
+      unindexedRoots.addAll(roundEnv.getRootElements());
+      subtypeIndexOutdated = true;
+    }
+    if (cachingTypes != null) {
+      cachingTypes.newRound(roundEnv.getRootElements());
+    }
+    elementLookup.newRound();
+    wakeBlockedTasks();
+    addRootTasks(roundEnv);
 
     if (roundEnv.processingOver()) {
-      fakeChild.finish();
+      // The root task finishes with the last round. Its finalizers run once
+      // all remaining tasks have finished.
+      rootTask.finish(scheduler);
     }
 
     Queue<Task<?>> nextRound = new ArrayDeque<>();
+    do {
+      if (parallelism > 1) {
+        runParallel(roundEnv, nextRound);
+      }
+      else {
+        runSequential(roundEnv, nextRound);
+      }
+      // The writers may set values which wake blocked tasks. These tasks
+      // are run within the same round.
+      renderQueue.flush();
+    } while (!queue.isEmpty());
+    nextRound.forEach(queue::add);
+
+    if (roundEnv.processingOver()) {
+      for (Task<?> task : queue) {
+        reportUnprocessed(task, "");
+      }
+      Set<BlockedTask> blockedTasks = new LinkedHashSet<>();
+      blockedOnTypes.values().forEach(blockedTasks::addAll);
+      blockedOnKeys.values().forEach(blockedTasks::addAll);
+      for (BlockedTask blocked : blockedTasks) {
+        reportUnprocessed(blocked.task, " Blocked on: " + blocked.blockers);
+      }
+      if (pool != null) {
+        pool.shutdown();
+        pool = null;
+      }
+      renderQueue.shutdown();
+      if (metrics != null) {
+        if (cachingTypes != null) {
+          metrics.recordCache("types", cachingTypes.getHits(), cachingTypes.getMisses());
+        }
+        metrics.recordCache("elements", elementLookup.getHits(), elementLookup.getMisses());
+        metrics.report(processingEnv.getMessager());
+      }
+    }
+  }
+
+  private void addRootTasks(@NotNull RoundEnvironment roundEnv) {
+    List<VisitorInfo> walkingVisitors = new ArrayList<>(rootVisitors.size());
+    for (VisitorInfo visitor : rootVisitors) {
+      Set<TypeElement> annotations = resolveAnnotations(visitor);
+      if (annotations == null) {
+        walkingVisitors.add(visitor);
+      }
+      else {
+        for (Element element : outermostAnnotatedElements(getElementIndex(), annotations)) {
+          addRootTask(new Task<>(visitor, element));
+        }
+      }
+    }
+    addWalkingTasks(walkingVisitors, roundEnv.getRootElements());
+  }
+
+  private void addWalkingTasks(@NotNull List<VisitorInfo> walkingVisitors, @NotNull Collection<? extends Element> rootElements) {
+    if (walkingVisitors.size() == 1) {
+      VisitorInfo visitor = walkingVisitors.get(0);
+      for (Element element : rootElements) {
+        if (visitor.reaches(element)) {
+          addRootTask(new Task<>(visitor, element));
+        }
+      }
+    }
+    else if (!walkingVisitors.isEmpty()) {
+      // All root visitors share a single walk over the element tree.
+      VisitorInfo[] visitors = walkingVisitors.toArray(new VisitorInfo[0]);
+      KeyValues[] values = new KeyValues[visitors.length];
+      Arrays.fill(values, rootTask.getValues().inherit());
+      for (Element element : rootElements) {
+        if (Traversal.reachedByAny(visitors, element)) {
+          addRootTask(new Task<>(Traversal.PROCESSOR, new Traversal(element, visitors, values)));
+        }
+      }
+    }
+  }
+
+  private void addRootTask(@NotNull Task<?> task) {
+    rootTask.addChild(task);
+    queue.add(task);
+  }
+
+  /**
+   * Resolves the annotation types of the given visitor. Returns {@code null}
+   * if the visitor is not restricted to annotation types, or if one of the
+   * types cannot be resolved yet. The visitor has to walk the whole element
+   * tree in this case.
+   */
+  private @Nullable Set<TypeElement> resolveAnnotations(@NotNull VisitorInfo visitor) {
+    AnnotationTypeSet annotationTypes = visitor.getAnnotationTypes();
+    if (annotationTypes == null) {
+      return null;
+    }
+    Set<TypeElement> result = new LinkedHashSet<>();
+    for (AnnotationType<?> type : annotationTypes) {
+      TypeElement element = resolvedAnnotations.get(type);
+      if (element == null) {
+        element = elementLookup.getAnnotationInterface(type);
+        if (element == null) {
+          return null;
+        }
+        resolvedAnnotations.put(type, element);
+      }
+      result.add(element);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the annotated elements which are not enclosed by another
+   * annotated element. The enclosed elements are reached by the recursion of
+   * the visitor, so they see the values of their ancestors as before.
+   * Parameters and type parameters are skipped, as they are not reachable via
+   * {@link Element#getEnclosedElements()}.
+   */
+  private static @NotNull List<Element> outermostAnnotatedElements(@NotNull ElementIndex index, @NotNull Set<TypeElement> annotations) {
+    Set<Element> annotated = new LinkedHashSet<>();
+    for (TypeElement annotation : annotations) {
+      annotated.addAll(index.getElementsAnnotatedWith(annotation));
+    }
+    List<Element> result = new ArrayList<>();
+    for (Element element : annotated) {
+      ElementKind kind = element.getKind();
+      if (kind != ElementKind.PARAMETER && kind != ElementKind.TYPE_PARAMETER && !hasAnnotatedAncestor(element, annotated)) {
+        result.add(element);
+      }
+    }
+    return result;
+  }
+
+  private static boolean hasAnnotatedAncestor(@NotNull Element element, @NotNull Set<Element> annotated) {
+    if (element.getKind() == ElementKind.PACKAGE || element.getKind() == ElementKind.MODULE) {
+      return false;
+    }
+    for (Element parent = element.getEnclosingElement(); parent != null; parent = parent.getEnclosingElement()) {
+      if (parent.getKind() == ElementKind.PACKAGE || parent.getKind() == ElementKind.MODULE) {
+        return false;
+      }
+      if (annotated.contains(parent)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void runSequential(@NotNull RoundEnvironment roundEnv, @NotNull Queue<Task<?>> nextRound) {
     while (!queue.isEmpty()) {
+      if (metrics != null) {
+        metrics.recordQueueSize(queue.size());
+      }
       Task<?> task = queue.remove();
-      if (!run(task, roundEnv)) {
+      handle(task, evaluate(task), roundEnv, nextRound);
+    }
+  }
+
+  private void runParallel(@NotNull RoundEnvironment roundEnv, @NotNull Queue<Task<?>> nextRound) {
+    // The queue is processed in waves. The preliminary phases of all
+    // thread-safe tasks of a wave are evaluated by the pool, but the results
+    // are applied in queue order on this thread. Tasks and their maps are
+    // therefore only modified by this thread. Worker threads only read the
+    // maps of ancestors, which are not modified anymore once a task was
+    // enqueued. The actions of earlier tasks of the wave may set global
+    // values, which the preliminary phase of a later task did not see. Such
+    // a task is evaluated again before its result is applied, so the
+    // visible values are the same as for runSequential(...).
+    while (!queue.isEmpty()) {
+      if (metrics != null) {
+        metrics.recordQueueSize(queue.size());
+      }
+      List<Task<?>> wave = new ArrayList<>(queue.size());
+      while (!queue.isEmpty()) {
+        wave.add(queue.remove());
+      }
+
+      List<ForkJoinTask<Preliminary>> evaluations = new ArrayList<>(wave.size());
+      if (wave.stream().filter(SegmentedExecutor::isThreadSafe).limit(2).count() < 2) {
+        wave.forEach(task -> evaluations.add(null));
+      }
+      else {
+        ForkJoinPool pool = getPool();
+        for (Task<?> task : wave) {
+          evaluations.add(isThreadSafe(task) ? pool.submit(() -> evaluateOnWorker(task)) : null);
+        }
+      }
+
+      for (int i = 0; i < wave.size(); i++) {
+        Task<?> task = wave.get(i);
+        ForkJoinTask<Preliminary> evaluation = evaluations.get(i);
+        Preliminary preliminary = evaluation == null ? evaluate(task) : evaluation.join();
+        if (preliminary.isOutdated()) {
+          preliminary = preliminary.newReevaluation();
+          preliminary.run();
+        }
+        handle(task, preliminary, roundEnv, nextRound);
+      }
+    }
+  }
+
+  private @NotNull Preliminary evaluate(@NotNull Task<?> task) {
+    Preliminary preliminary = new Preliminary(this, task);
+    preliminary.run();
+    return preliminary;
+  }
+
+  private @NotNull Preliminary evaluateOnWorker(@NotNull Task<?> task) {
+    AnnotationCache.Scope scope = annotationCache.activate();
+    try {
+      return evaluate(task);
+    }
+    finally {
+      scope.close();
+    }
+  }
+
+  void handle(@NotNull Task<?> task, @NotNull Preliminary preliminary, @NotNull RoundEnvironment roundEnv, @NotNull Queue<Task<?>> nextRound) {
+    if (preliminary.isCompleted()) {
+      preliminary.apply(task, roundEnv);
+      if (task.getItem() instanceof Traversal) {
+        ((Traversal) task.getItem()).apply(this, task, roundEnv, nextRound);
+      }
+      preliminary.applyInlinedTasks(task, roundEnv, nextRound);
+      task.finish(scheduler);
+    }
+    else {
+      if (metrics != null) {
+        metrics.recordDeferred(task.getSubProcessor());
+      }
+      Set<Object> blockers = preliminary.getBlockers();
+      task.defer(blockers.isEmpty() ? globals : null);
+      if (maxDeferrals > 0 && task.getDeferrals() >= maxDeferrals) {
+        reportStuck(task, "Deferred " + task.getDeferrals() + " times.");
+      }
+      else if (!blockers.isEmpty()) {
+        block(task, blockers, preliminary.getObservedGlobals());
+      }
+      else if (abortStalledTasks && task.getStalledRounds() >= 2) {
+        reportStuck(task, "No progress in " + task.getStalledRounds() + " consecutive rounds.");
+      }
+      else {
         nextRound.add(task);
       }
     }
-    queue.addAll(nextRound);
+  }
 
-    if (roundEnv.processingOver()) {
-      for (Task<?> task : queue) {
-        Object item = task.getItem();
-        if (item instanceof Element && task.getSubProcessor() instanceof VisitorInfo) {
-          processingEnv.getMessager().printMessage(
-              Diagnostic.Kind.ERROR,
-              "Unprocessed element remaining after end of compilation. " +
-              "You may report this to the developers of the annotation processor.",
-              (Element) item);
+  private void block(@NotNull Task<?> task, @NotNull Set<Object> blockers, @NotNull KeyValues observedGlobals) {
+    BlockedTask blocked = new BlockedTask(task, blockers);
+    for (Object blocker : blockers) {
+      if (blocker instanceof Key) {
+        Key<?> key = (Key<?>) blocker;
+        // With parallel tasks, the key may have been set by another task
+        // after the task has been run.
+        if (observedGlobals != globals && task.getValues().get(key, globals) != null) {
+          blocked.remaining--;
         }
         else {
-          processingEnv.getMessager().printMessage(
-              Diagnostic.Kind.ERROR,
-              "Unprocessed task remaining after end of compilation. " +
-              "You may report this to the developers of the annotation processor. " +
-              "Task: " + task);
+          blockedOnKeys.computeIfAbsent(key, k -> new ArrayList<>()).add(blocked);
         }
       }
+      else if (provisionalTypes.containsKey(withoutModule((String) blocker))) {
+        // Likewise, the type may have been announced in the meantime.
+        blocked.remaining--;
+      }
+      else {
+        blockedOnTypes.computeIfAbsent((String) blocker, name -> new ArrayList<>()).add(blocked);
+      }
     }
+    if (blocked.remaining == 0) {
+      queue.add(task);
+    }
+  }
+
+  private void wakeBlockedTasks() {
+    // Only the blockers are checked. The tasks are not run before all of
+    // their blockers are resolved.
+    // Provisional types are replaced by the types of the compiler.
+    provisionalTypes.keySet().removeIf(name -> elementLookup.getTypeElement(name) != null);
+    blockedOnTypes.entrySet().removeIf(entry -> {
+      if (elementLookup.getTypeElementWithModule(entry.getKey()) == null) {
+        return false;
+      }
+      entry.getValue().forEach(this::unblock);
+      return true;
+    });
+    blockedOnKeys.entrySet().removeIf(entry -> wake(entry.getKey(), entry.getValue()));
   }
 
-  private boolean run(@NotNull Task<?> task, @NotNull RoundEnvironment roundEnv) {
-    Preliminary preliminary = new Preliminary(task, processingEnv);
-    if (task.run(preliminary)) {
-      preliminary.apply(roundEnv);
-      task.finish().forEach(queue::add);
+  /**
+   * Unblocks the given tasks which are blocked on the given key, if the key
+   * is visible to them.
+   *
+   * @return whether no blocked task remains.
+   */
+  private boolean wake(@NotNull Key<?> key, @NotNull List<BlockedTask> blockedTasks) {
+    blockedTasks.removeIf(blocked -> {
+      if (blocked.task.getValues().get(key, globals) == null) {
+        return false;
+      }
+      unblock(blocked);
       return true;
+    });
+    return blockedTasks.isEmpty();
+  }
+
+  private void unblock(@NotNull BlockedTask blocked) {
+    if (--blocked.remaining == 0) {
+      queue.add(blocked.task);
+    }
+  }
+
+  private void reportUnprocessed(@NotNull Task<?> task, @NotNull String details) {
+    Object item = task.getItem();
+    if (item instanceof Element && task.getSubProcessor() instanceof VisitorInfo) {
+      processingEnv.getMessager().printMessage(
+          Diagnostic.Kind.ERROR,
+          "Unprocessed element remaining after end of compilation. " +
+          "You may report this to the developers of the annotation processor." + details,
+          (Element) item);
+    }
+    else {
+      processingEnv.getMessager().printMessage(
+          Diagnostic.Kind.ERROR,
+          "Unprocessed task remaining after end of compilation. " +
+          "You may report this to the developers of the annotation processor. " +
+          "Task: " + task + details);
+    }
+  }
+
+  /**
+   * Reports a task which is not run again, including the chain of tasks which
+   * led to it.
+   */
+  private void reportStuck(@NotNull Task<?> task, @NotNull String reason) {
+    StringBuilder message = new StringBuilder("Task does not complete. ").append(reason).append(" Task chain: ").append(task);
+    for (Task<?> owner = task.getOwner(); owner != null && owner != rootTask; owner = owner.getOwner()) {
+      message.append(" <- ").append(owner);
+    }
+    Object item = task.getItem();
+    if (item instanceof Element) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, (Element) item);
+    }
+    else {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message);
+    }
+  }
+
+  private static boolean isDescendant(@NotNull Task<?> task, @NotNull Task<?> ancestor) {
+    for (Task<?> owner = task.getOwner(); owner != null; owner = owner.getOwner()) {
+      if (owner == ancestor) {
+        return true;
+      }
     }
     return false;
   }
+
+  private static @NotNull String withoutModule(@NotNull String name) {
+    return name.substring(name.indexOf('/') + 1);
+  }
+
+  private @NotNull ForkJoinPool getPool() {
+    if (pool == null) {
+      pool = new ForkJoinPool(parallelism);
+    }
+    return pool;
+  }
+
+  private static boolean isThreadSafe(@NotNull Task<?> task) {
+    SubProcessor<?> processor = task.getSubProcessor();
+    return processor instanceof ThreadSafe ||
+           processor instanceof VisitorInfo && ((VisitorInfo) processor).isThreadSafe() ||
+           task.getItem() instanceof Traversal && ((Traversal) task.getItem()).isThreadSafe();
+  }
+
+  private static final class BlockedTask {
+    private final @NotNull Task<?> task;
+    private final @NotNull List<Object> blockers;
+    private int remaining;
+
+    private BlockedTask(@NotNull Task<?> task, @NotNull Collection<Object> blockers) {
+      this.task = task;
+      this.blockers = List.copyOf(blockers);
+      this.remaining = blockers.size();
+    }
+  }
 }
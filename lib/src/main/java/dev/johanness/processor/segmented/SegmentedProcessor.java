@@ -1,6 +1,7 @@
 package dev.johanness.processor.segmented;
 
 import dev.johanness.processor.AnnotationType;
+import dev.johanness.processor.AnnotationTypeSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -13,21 +14,42 @@
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.TypeElement;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 public abstract class SegmentedProcessor implements javax.annotation.processing.Processor {
   private final @NotNull SourceVersion supportedSourceVersion;
-  private final @Nullable Set<AnnotationType<?>> annotationTypes;
+  private final @Nullable AnnotationTypeSet annotationTypes;
+  private final @Nullable IncrementalCategory incrementalCategory;
   private @Nullable ProcessingEnvironment processingEnv;
   private @Nullable SegmentedExecutor executor;
+  private @Nullable Set<String> supportedOptions;
 
   protected SegmentedProcessor(
       @NotNull SourceVersion supportedSourceVersion,
       @Nullable Collection<? extends AnnotationType<?>> annotationTypes)
+  {
+    this(supportedSourceVersion, annotationTypes, null);
+  }
+
+  /**
+   * Initializes the processor with the given category for incremental
+   * annotation processing. The processor must be registered in
+   * {@code META-INF/gradle/incremental.annotation.processors}, either as
+   * {@code dynamic}, in which case Gradle takes the category from
+   * {@link #getSupportedOptions()}, or with the same category, in which case
+   * Gradle ignores the reported option. In both cases, the category is used
+   * to check the originating elements of generated files.
+   */
+  protected SegmentedProcessor(
+      @NotNull SourceVersion supportedSourceVersion,
+      @Nullable Collection<? extends AnnotationType<?>> annotationTypes,
+      @Nullable IncrementalCategory incrementalCategory)
   {
     this.supportedSourceVersion = supportedSourceVersion;
-    this.annotationTypes = annotationTypes == null ? null : Set.copyOf(annotationTypes);
+    this.annotationTypes = annotationTypes == null ? null : AnnotationTypeSet.of(annotationTypes);
+    this.incrementalCategory = incrementalCategory;
   }
 
   @Override
@@ -41,6 +63,17 @@ public final void init(ProcessingEnvironment processingEnv) {
       throw new NullPointerException("processingEnv");
     }
     this.processingEnv = processingEnv;
+    // The processor is configured here, as the options declared by
+    // startProcessing(...) are requested before the first round.
+    executor = new SegmentedExecutor(processingEnv);
+    ProcessorConfig config = new ProcessorConfig(processingEnv, executor);
+    startProcessing(config);
+    config.applyExecutorOptions(incrementalCategory);
+    Set<String> options = new LinkedHashSet<>(config.getDeclaredOptions());
+    if (incrementalCategory != null) {
+      options.add(incrementalCategory.gradleOption());
+    }
+    supportedOptions = Collections.unmodifiableSet(options);
   }
 
   @Override
@@ -51,9 +84,7 @@ public final Set<String> getSupportedAnnotationTypes() {
     }
     else {
       boolean withModule = processingEnv.getSourceVersion().compareTo(SourceVersion.RELEASE_9) >= 0;
-      return annotationTypes.stream()
-          .map(withModule ? AnnotationType::nameWithModule : AnnotationType::canonicalName)
-          .collect(Collectors.toUnmodifiableSet());
+      return withModule ? annotationTypes.namesWithModule() : annotationTypes.canonicalNames();
     }
   }
 
@@ -66,7 +97,7 @@ public final Set<String> getSupportedAnnotationTypes() {
   @Override
   public final @NotNull Set<String> getSupportedOptions() {
     checkProcessingEnvironment();
-    return Set.of();
+    return supportedOptions;
   }
 
   @Override
@@ -78,15 +109,14 @@ public final Set<String> getSupportedAnnotationTypes() {
   @Override
   public final boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
     checkProcessingEnvironment();
-    if (executor == null) {
-      executor = new SegmentedExecutor(processingEnv);
-      ProcessorConfig config = new ProcessorConfig(processingEnv, executor);
-      startProcessing(config);
-    }
     executor.process(roundEnv);
     return false;
   }
 
+  /**
+   * Configures the processor. Called once by
+   * {@link #init(ProcessingEnvironment)}, before the first round.
+   */
   protected abstract void startProcessing(@NotNull ProcessorConfig processorConfig);
 
   private void checkProcessingEnvironment() {
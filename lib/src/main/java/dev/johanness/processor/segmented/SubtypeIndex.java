@@ -0,0 +1,162 @@
+package dev.johanness.processor.segmented;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the subtypes of classes and interfaces. The index covers the
+ * types of all rounds so far, including nested types, and is extended by
+ * the new root elements of each round. The relation is based on
+ * {@link TypeElement#getSuperclass()} and {@link TypeElement#getInterfaces()}
+ * and ignores type arguments. The index is obtained via
+ * {@link Preliminary#subtypeIndex()} or {@link Definitely#subtypeIndex()}.
+ */
+public final class SubtypeIndex {
+  private final @NotNull Map<TypeElement, Set<TypeElement>> subtypes = new HashMap<>();
+  private final @NotNull Map<TypeElement, Set<TypeElement>> directSubtypes = new HashMap<>();
+  // Memoized transitive supertypes, including the types of libraries. Types
+  // with supertypes which cannot be resolved yet are not memoized.
+  private final @NotNull Map<TypeElement, Set<TypeElement>> supertypes = new HashMap<>();
+  // Types with supertypes which cannot be resolved yet. They are indexed
+  // again with the next round.
+  private @NotNull List<TypeElement> incomplete = new ArrayList<>();
+
+  SubtypeIndex() {
+  }
+
+  /**
+   * Returns the classes and interfaces which extend or implement the given
+   * type, directly or indirectly. The type itself is not included.
+   *
+   * @param type the class or interface.
+   * @return the subtypes in the order in which they were indexed.
+   */
+  public @NotNull List<TypeElement> getSubtypes(@NotNull TypeElement type) {
+    Set<TypeElement> result = subtypes.get(type);
+    return result == null ? List.of() : List.copyOf(result);
+  }
+
+  /**
+   * Returns the classes and interfaces which directly extend or implement
+   * the given type.
+   *
+   * @param type the class or interface.
+   * @return the direct subtypes in the order in which they were indexed.
+   */
+  public @NotNull List<TypeElement> getDirectSubtypes(@NotNull TypeElement type) {
+    Set<TypeElement> result = directSubtypes.get(type);
+    return result == null ? List.of() : List.copyOf(result);
+  }
+
+  /**
+   * Adds the types of a new round. The types of previous rounds whose
+   * supertypes could not be resolved are indexed again.
+   */
+  void addRound(@NotNull Collection<? extends Element> rootElements) {
+    List<TypeElement> retry = incomplete;
+    incomplete = new ArrayList<>();
+    retry.forEach(this::index);
+    for (Element root : rootElements) {
+      addTypes(root);
+    }
+  }
+
+  private void addTypes(@NotNull Element element) {
+    if (!element.getKind().isClass() && !element.getKind().isInterface()) {
+      return;
+    }
+    TypeElement type = (TypeElement) element;
+    index(type);
+    for (Element enclosed : type.getEnclosedElements()) {
+      addTypes(enclosed);
+    }
+  }
+
+  private void index(@NotNull TypeElement type) {
+    for (TypeElement supertype : getDirectSupertypes(type)) {
+      directSubtypes.computeIfAbsent(supertype, t -> new LinkedHashSet<>()).add(type);
+    }
+    Set<TypeElement> closure = computeSupertypes(type);
+    if (closure == null) {
+      incomplete.add(type);
+      closure = collectSupertypes(type);
+    }
+    for (TypeElement supertype : closure) {
+      subtypes.computeIfAbsent(supertype, t -> new LinkedHashSet<>()).add(type);
+    }
+  }
+
+  /**
+   * Returns the transitive supertypes of the given type, or {@code null} if
+   * some of them cannot be resolved.
+   */
+  private @Nullable Set<TypeElement> computeSupertypes(@NotNull TypeElement type) {
+    Set<TypeElement> result = supertypes.get(type);
+    if (result != null) {
+      return result;
+    }
+    result = new LinkedHashSet<>();
+    for (TypeMirror mirror : getDirectSupertypeMirrors(type)) {
+      if (mirror.getKind() == TypeKind.ERROR) {
+        return null;
+      }
+      TypeElement supertype = (TypeElement) ((DeclaredType) mirror).asElement();
+      Set<TypeElement> inherited = computeSupertypes(supertype);
+      if (inherited == null) {
+        return null;
+      }
+      result.add(supertype);
+      result.addAll(inherited);
+    }
+    supertypes.put(type, result);
+    return result;
+  }
+
+  /**
+   * Returns the transitive supertypes of the given type which can be
+   * resolved, without memoizing them.
+   */
+  private @NotNull Set<TypeElement> collectSupertypes(@NotNull TypeElement type) {
+    Set<TypeElement> result = new LinkedHashSet<>();
+    for (TypeElement supertype : getDirectSupertypes(type)) {
+      if (result.add(supertype)) {
+        Set<TypeElement> inherited = computeSupertypes(supertype);
+        result.addAll(inherited != null ? inherited : collectSupertypes(supertype));
+      }
+    }
+    return result;
+  }
+
+  private static @NotNull List<TypeElement> getDirectSupertypes(@NotNull TypeElement type) {
+    List<TypeElement> result = new ArrayList<>();
+    for (TypeMirror mirror : getDirectSupertypeMirrors(type)) {
+      if (mirror.getKind() == TypeKind.DECLARED) {
+        result.add((TypeElement) ((DeclaredType) mirror).asElement());
+      }
+    }
+    return result;
+  }
+
+  private static @NotNull List<TypeMirror> getDirectSupertypeMirrors(@NotNull TypeElement type) {
+    List<TypeMirror> result = new ArrayList<>(type.getInterfaces().size() + 1);
+    TypeMirror superclass = type.getSuperclass();
+    if (superclass.getKind() != TypeKind.NONE) {
+      result.add(superclass);
+    }
+    result.addAll(type.getInterfaces());
+    return result;
+  }
+}
@@ -0,0 +1,22 @@
+package dev.johanness.processor.segmented;
+
+/**
+ * Marks a {@link SubProcessor} or a visitor as safe to be called from
+ * multiple threads at once. When parallelism is enabled via
+ * {@link ProcessorConfig#setParallelism(int)}, the executor may run the
+ * preliminary phase of such processors on a worker thread. The
+ * {@link Action actions} they register are still executed one after another
+ * on the thread of the annotation processing round.
+ * <p>
+ * Note that the preliminary phase of a thread-safe processor may run before
+ * the actions of unrelated tasks in the same round. If these actions change
+ * the global values, the preliminary phase is run again before its result is
+ * applied. Implementations must not depend on other side effects of actions
+ * which were registered by other tasks. They must also be aware that the
+ * compiler does not promise that its implementation of the
+ * {@code javax.lang.model} API is thread-safe. Lambdas can be marked by
+ * using an intersection cast, e.g.
+ * {@code (SubProcessor<T> & ThreadSafe) (item, preliminary) -> ...}.
+ */
+public interface ThreadSafe {
+}
@@ -0,0 +1,176 @@
+package dev.johanness.processor.segmented;
+
+import dev.johanness.processor.segmented._internal.KeyValues;
+import dev.johanness.processor.segmented._internal.Task;
+import dev.johanness.processor.segmented._internal.VisitorInfo;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.Element;
+import java.util.Arrays;
+import java.util.Queue;
+
+/**
+ * Walks the element tree once for several recursive visitors. Each visitor
+ * is a lane of the traversal with its own values, so the visitors don't see
+ * the values of each other. A lane continues on a task of its own when its
+ * visitor returns {@code false} or registers finalizers. Deferring or
+ * finalizing one visitor therefore does not affect the other visitors.
+ * All lanes of an element are run before the actions of the first lane are
+ * applied. A lane which has missed global values set by the actions of an
+ * earlier lane is run again before it is applied, so each lane sees the same
+ * values as if it had a task of its own.
+ */
+final class Traversal {
+  static final @NotNull SubProcessor<Traversal> PROCESSOR = new SubProcessor<>() {
+    @Override
+    public boolean process(Traversal traversal, @NotNull Preliminary preliminary) {
+      traversal.run(preliminary);
+      return true;
+    }
+
+    @Override
+    public String toString() {
+      return "Traversal";
+    }
+  };
+
+  private final @NotNull Element element;
+  // Both arrays may be shared with sibling tasks and must not be modified.
+  private final @NotNull VisitorInfo @NotNull [] visitors;
+  private final @NotNull KeyValues @NotNull [] values;
+  private @Nullable Preliminary @Nullable [] lanes;
+
+  Traversal(@NotNull Element element, @NotNull VisitorInfo @NotNull [] visitors, @NotNull KeyValues @NotNull [] values) {
+    this.element = element;
+    this.visitors = visitors;
+    this.values = values;
+  }
+
+  boolean isThreadSafe() {
+    for (VisitorInfo visitor : visitors) {
+      if (!visitor.isThreadSafe()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void run(@NotNull Preliminary preliminary) {
+    Preliminary[] results = new Preliminary[visitors.length];
+    for (int i = 0; i < visitors.length; i++) {
+      if (visitors[i].matches(element)) {
+        Preliminary lane = preliminary.newLane(visitors[i], values[i]);
+        lane.runLane(element);
+        results[i] = lane;
+      }
+    }
+    lanes = results;
+  }
+
+  /**
+   * Applies the results of all lanes and schedules the enclosed elements.
+   * Must be called on the thread of the annotation processing round, after
+   * the task was run.
+   */
+  void apply(@NotNull SegmentedExecutor executor, @NotNull Task<?> task, @NotNull RoundEnvironment roundEnv, @NotNull Queue<Task<?>> nextRound) {
+    Preliminary[] results = lanes;
+    if (results == null) {
+      throw new IllegalStateException("Traversal has not been run");
+    }
+    lanes = null;
+
+    // The arrays for the enclosed elements are only copied if a lane is
+    // dropped or if one of the values changes.
+    VisitorInfo[] nextVisitors = visitors;
+    KeyValues[] nextValues = values;
+    int count = 0;
+    for (int i = 0; i < visitors.length; i++) {
+      VisitorInfo visitor = visitors[i];
+      Preliminary lane = results[i];
+      KeyValues laneValues = values[i];
+      if (lane != null && lane.isOutdated()) {
+        lane = lane.newReevaluation();
+        lane.runLane(element);
+      }
+      if (lane != null && (!lane.isCompleted() || lane.hasFinalizers())) {
+        // The task of the lane is a child of this task, so finalizers of
+        // ancestors still wait for it.
+        Task<Element> split = new Task<>(visitor, element);
+        task.addChild(split);
+        split.setValues(laneValues);
+        if (lane.isCompleted() && visitor.descendsInto(element)) {
+          lane.processAll(visitor.getEnclosedElements(element), visitor);
+        }
+        executor.handle(split, lane, roundEnv, nextRound);
+        continue;
+      }
+      if (lane != null) {
+        task.setValues(laneValues);
+        lane.apply(task, roundEnv);
+        laneValues = task.getValues();
+      }
+      if (!visitor.descendsInto(element)) {
+        continue;
+      }
+      if (laneValues != values[i]) {
+        // The enclosed elements inherit the values of this element.
+        laneValues = laneValues.inherit();
+      }
+      if (nextValues == values && (count != i || laneValues != values[i])) {
+        nextVisitors = Arrays.copyOf(visitors, visitors.length);
+        nextValues = Arrays.copyOf(values, values.length);
+      }
+      nextVisitors[count] = visitor;
+      nextValues[count] = laneValues;
+      count++;
+    }
+    if (count == 0) {
+      return;
+    }
+
+    if (count == 1) {
+      // A single visitor does not need the traversal anymore.
+      task.setValues(nextValues[0]);
+      for (Element enclosed : nextVisitors[0].getEnclosedElements(element)) {
+        schedule(executor, task, new Task<>(nextVisitors[0], enclosed));
+      }
+      return;
+    }
+    if (count < nextVisitors.length) {
+      nextVisitors = Arrays.copyOf(nextVisitors, count);
+      nextValues = Arrays.copyOf(nextValues, count);
+    }
+    for (Element enclosed : element.getEnclosedElements()) {
+      if (reachedByAny(nextVisitors, enclosed)) {
+        schedule(executor, task, new Task<>(PROCESSOR, new Traversal(enclosed, nextVisitors, nextValues)));
+      }
+    }
+  }
+
+  /**
+   * Returns whether any of the given visitors
+   * {@linkplain VisitorInfo#reaches(Element) reaches} the given element.
+   * Lanes which don't reach the element are dropped by the traversal of the
+   * element, as they neither match nor descend into it.
+   */
+  static boolean reachedByAny(@NotNull VisitorInfo @NotNull [] visitors, @NotNull Element element) {
+    for (VisitorInfo visitor : visitors) {
+      if (visitor.reaches(element)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void schedule(@NotNull SegmentedExecutor executor, @NotNull Task<?> task, @NotNull Task<?> child) {
+    task.addChild(child);
+    executor.schedule(child);
+  }
+
+  @Override
+  public String toString() {
+    return "Traversal{element=" + element + ", visitors=" + visitors.length + '}';
+  }
+}
@@ -0,0 +1,342 @@
+package dev.johanness.processor.segmented._internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.NoType;
+import javax.lang.model.type.NullType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Implementation of {@link Types} which memoizes {@link #isSubtype},
+ * {@link #isAssignable} and {@link #erasure} for the whole compilation. The
+ * results are keyed by the structure of the types, i.e. the elements and type
+ * arguments of declared types, the components of array types and the kinds
+ * of primitive types. Types which contain error types, type variables or
+ * type annotations, as well as all other kinds of types, bypass the cache.
+ * Only the erasure of declared types is memoized, which the compiler keeps
+ * per class or interface, so the results are the same as the results of the
+ * compiler.
+ * <p>
+ * The relations of a type may change in a later round if some of its
+ * supertypes could not be resolved yet. The compiler may even keep using
+ * the outdated type in some places, e.g. for the erasure. Classes and
+ * interfaces which had such supertypes at any time, directly or indirectly,
+ * therefore bypass the cache as well.
+ */
+public final class CachingTypes implements Types {
+  private static final @NotNull Object SUBTYPE = new Object();
+  private static final @NotNull Object ASSIGNABLE = new Object();
+  private static final @NotNull Object ERASURE = new Object();
+
+  private final @NotNull Types delegate;
+  private final @NotNull Map<Object, Object> cache;
+  // Types whose supertypes could not be resolved in some round.
+  private final @NotNull Set<TypeElement> incompleteTypes = ConcurrentHashMap.newKeySet();
+  // Memoized result of isStable(TypeElement).
+  private final @NotNull Map<TypeElement, Boolean> stableTypes = new ConcurrentHashMap<>();
+  private long hits;
+  private long misses;
+
+  public CachingTypes(@NotNull Types delegate, int maxSize) {
+    this.delegate = delegate;
+    this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Must be called at the start of each round with the new root elements.
+   */
+  public void newRound(@NotNull Collection<? extends Element> rootElements) {
+    for (Element root : rootElements) {
+      collectIncompleteTypes(root);
+    }
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  @Override
+  public boolean isSubtype(@NotNull TypeMirror t1, @NotNull TypeMirror t2) {
+    return cached(SUBTYPE, t1, t2, () -> delegate.isSubtype(t1, t2));
+  }
+
+  @Override
+  public boolean isAssignable(@NotNull TypeMirror t1, @NotNull TypeMirror t2) {
+    return cached(ASSIGNABLE, t1, t2, () -> delegate.isAssignable(t1, t2));
+  }
+
+  @Override
+  public @NotNull TypeMirror erasure(@NotNull TypeMirror t) {
+    // The compiler creates a new instance for the erasure of each array type.
+    if (t.getKind() != TypeKind.DECLARED) {
+      return delegate.erasure(t);
+    }
+    return cached(ERASURE, t, null, () -> delegate.erasure(t));
+  }
+
+  private <T> T cached(@NotNull Object operation, @NotNull TypeMirror t1, @Nullable TypeMirror t2, @NotNull Supplier<T> computation) {
+    // Wildcards are only supported as type arguments. The compiler rejects
+    // them as arguments of the operations, so the call is passed on.
+    Object key1 = t1.getKind() == TypeKind.WILDCARD ? null : keyOf(t1);
+    Object key2 = t2 == null ? operation : t2.getKind() == TypeKind.WILDCARD ? null : keyOf(t2);
+    if (key1 == null || key2 == null) {
+      return computation.get();
+    }
+    List<Object> key = List.of(operation, key1, key2);
+    synchronized (this) {
+      Object result = cache.get(key);
+      if (result != null) {
+        hits++;
+        @SuppressWarnings("unchecked") T value = (T) result;
+        return value;
+      }
+      misses++;
+    }
+    T result = computation.get();
+    // The compiler returns some types unchanged, e.g. String for the erasure.
+    // The result of a later call is then another instance.
+    if (result != t1) {
+      synchronized (this) {
+        cache.put(key, result);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns a key which is equal for types of the same structure, or
+   * {@code null} if the type must not be cached.
+   */
+  private @Nullable Object keyOf(@NotNull TypeMirror type) {
+    if (!type.getAnnotationMirrors().isEmpty()) {
+      return null;
+    }
+    TypeKind kind = type.getKind();
+    if (kind.isPrimitive()) {
+      return kind;
+    }
+    switch (kind) {
+      case ARRAY: {
+        Object component = keyOf(((ArrayType) type).getComponentType());
+        return component == null ? null : List.of(kind, component);
+      }
+      case DECLARED: {
+        DeclaredType declaredType = (DeclaredType) type;
+        List<? extends TypeMirror> arguments = declaredType.getTypeArguments();
+        TypeMirror enclosingType = declaredType.getEnclosingType();
+        TypeElement element = (TypeElement) declaredType.asElement();
+        if (!isStable(element)) {
+          return null;
+        }
+        List<Object> key = new ArrayList<>(arguments.size() + 2);
+        key.add(element);
+        if (enclosingType.getKind() == TypeKind.DECLARED) {
+          Object enclosing = keyOf(enclosingType);
+          if (enclosing == null) {
+            return null;
+          }
+          key.add(enclosing);
+        }
+        else {
+          key.add(TypeKind.NONE);
+        }
+        for (TypeMirror argument : arguments) {
+          Object argumentKey = keyOf(argument);
+          if (argumentKey == null) {
+            return null;
+          }
+          key.add(argumentKey);
+        }
+        return key;
+      }
+      case WILDCARD: {
+        WildcardType wildcardType = (WildcardType) type;
+        TypeMirror extendsBound = wildcardType.getExtendsBound();
+        TypeMirror superBound = wildcardType.getSuperBound();
+        Object extendsKey = extendsBound == null ? TypeKind.NONE : keyOf(extendsBound);
+        Object superKey = superBound == null ? TypeKind.NONE : keyOf(superBound);
+        return extendsKey == null || superKey == null ? null : List.of(kind, extendsKey, superKey);
+      }
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Returns whether all supertypes of the given type could be resolved in
+   * every round so far.
+   */
+  private boolean isStable(@NotNull TypeElement type) {
+    Boolean result = stableTypes.get(type);
+    if (result == null) {
+      result = !incompleteTypes.contains(type) && !hasErroneousSupertypes(type);
+      if (result) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() == TypeKind.DECLARED) {
+          result = isStable((TypeElement) ((DeclaredType) superclass).asElement());
+        }
+        for (TypeMirror supertype : type.getInterfaces()) {
+          result = result && isStable((TypeElement) ((DeclaredType) supertype).asElement());
+        }
+      }
+      stableTypes.put(type, result);
+    }
+    return result;
+  }
+
+  private void collectIncompleteTypes(@NotNull Element element) {
+    if (!element.getKind().isClass() && !element.getKind().isInterface()) {
+      return;
+    }
+    TypeElement type = (TypeElement) element;
+    if (hasErroneousSupertypes(type)) {
+      incompleteTypes.add(type);
+    }
+    for (Element enclosed : type.getEnclosedElements()) {
+      collectIncompleteTypes(enclosed);
+    }
+  }
+
+  private static boolean hasErroneousSupertypes(@NotNull TypeElement type) {
+    if (isErroneous(type.getSuperclass())) {
+      return true;
+    }
+    for (TypeMirror supertype : type.getInterfaces()) {
+      if (isErroneous(supertype)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isErroneous(@NotNull TypeMirror type) {
+    switch (type.getKind()) {
+      case ERROR:
+        return true;
+      case ARRAY:
+        return isErroneous(((ArrayType) type).getComponentType());
+      case DECLARED:
+        for (TypeMirror argument : ((DeclaredType) type).getTypeArguments()) {
+          if (isErroneous(argument)) {
+            return true;
+          }
+        }
+        return false;
+      case WILDCARD: {
+        WildcardType wildcardType = (WildcardType) type;
+        TypeMirror extendsBound = wildcardType.getExtendsBound();
+        TypeMirror superBound = wildcardType.getSuperBound();
+        return extendsBound != null && isErroneous(extendsBound) || superBound != null && isErroneous(superBound);
+      }
+      default:
+        return false;
+    }
+  }
+
+  @Override
+  public Element asElement(TypeMirror t) {
+    return delegate.asElement(t);
+  }
+
+  @Override
+  public boolean isSameType(TypeMirror t1, TypeMirror t2) {
+    return delegate.isSameType(t1, t2);
+  }
+
+  @Override
+  public boolean contains(TypeMirror t1, TypeMirror t2) {
+    return delegate.contains(t1, t2);
+  }
+
+  @Override
+  public boolean isSubsignature(ExecutableType m1, ExecutableType m2) {
+    return delegate.isSubsignature(m1, m2);
+  }
+
+  @Override
+  public List<? extends TypeMirror> directSupertypes(TypeMirror t) {
+    return delegate.directSupertypes(t);
+  }
+
+  @Override
+  public TypeElement boxedClass(PrimitiveType p) {
+    return delegate.boxedClass(p);
+  }
+
+  @Override
+  public PrimitiveType unboxedType(TypeMirror t) {
+    return delegate.unboxedType(t);
+  }
+
+  @Override
+  public TypeMirror capture(TypeMirror t) {
+    return delegate.capture(t);
+  }
+
+  @Override
+  public PrimitiveType getPrimitiveType(TypeKind kind) {
+    return delegate.getPrimitiveType(kind);
+  }
+
+  @Override
+  public NullType getNullType() {
+    return delegate.getNullType();
+  }
+
+  @Override
+  public NoType getNoType(TypeKind kind) {
+    return delegate.getNoType(kind);
+  }
+
+  @Override
+  public ArrayType getArrayType(TypeMirror componentType) {
+    return delegate.getArrayType(componentType);
+  }
+
+  @Override
+  public WildcardType getWildcardType(TypeMirror extendsBound, TypeMirror superBound) {
+    return delegate.getWildcardType(extendsBound, superBound);
+  }
+
+  @Override
+  public DeclaredType getDeclaredType(TypeElement typeElem, TypeMirror... typeArgs) {
+    return delegate.getDeclaredType(typeElem, typeArgs);
+  }
+
+  @Override
+  public DeclaredType getDeclaredType(DeclaredType containing, TypeElement typeElem, TypeMirror... typeArgs) {
+    return delegate.getDeclaredType(containing, typeElem, typeArgs);
+  }
+
+  @Override
+  public TypeMirror asMemberOf(DeclaredType containing, Element element) {
+    return delegate.asMemberOf(containing, element);
+  }
+}
@@ -0,0 +1,97 @@
+package dev.johanness.processor.segmented._internal;
+
+import dev.johanness.processor.segmented.IncrementalCategory;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Filer which verifies the originating elements of generated files, as
+ * required by incremental annotation processing in Gradle. Violations are
+ * reported as errors, but the files are still created.
+ */
+public final class CheckedFiler implements Filer {
+  private final @NotNull Filer filer;
+  private final @NotNull Messager messager;
+  private final @NotNull IncrementalCategory category;
+  private final @NotNull Set<Element> rootElements = new HashSet<>();
+
+  public CheckedFiler(@NotNull Filer filer, @NotNull Messager messager, @NotNull IncrementalCategory category) {
+    this.filer = filer;
+    this.messager = messager;
+    this.category = category;
+  }
+
+  /**
+   * Registers the root elements of a round. Only elements within root
+   * elements are valid originating elements.
+   */
+  public void addRootElements(@NotNull Collection<? extends Element> elements) {
+    rootElements.addAll(elements);
+  }
+
+  @Override
+  public @NotNull JavaFileObject createSourceFile(@NotNull CharSequence name, Element @NotNull ... originatingElements) throws IOException {
+    check(name, originatingElements);
+    return filer.createSourceFile(name, originatingElements);
+  }
+
+  @Override
+  public @NotNull JavaFileObject createClassFile(@NotNull CharSequence name, Element @NotNull ... originatingElements) throws IOException {
+    check(name, originatingElements);
+    return filer.createClassFile(name, originatingElements);
+  }
+
+  @Override
+  public @NotNull FileObject createResource(@NotNull JavaFileManager.Location location, @NotNull CharSequence moduleAndPkg, @NotNull CharSequence relativeName, Element @NotNull ... originatingElements) throws IOException {
+    check(relativeName, originatingElements);
+    return filer.createResource(location, moduleAndPkg, relativeName, originatingElements);
+  }
+
+  @Override
+  public @NotNull FileObject getResource(@NotNull JavaFileManager.Location location, @NotNull CharSequence moduleAndPkg, @NotNull CharSequence relativeName) throws IOException {
+    return filer.getResource(location, moduleAndPkg, relativeName);
+  }
+
+  private void check(@NotNull CharSequence name, Element @NotNull [] originatingElements) {
+    if (category == IncrementalCategory.ISOLATING && originatingElements.length != 1) {
+      messager.printMessage(Diagnostic.Kind.ERROR, String.format(
+          "Isolating processors must create %s with exactly one originating element, but got %d.",
+          name, originatingElements.length));
+    }
+    for (Element element : originatingElements) {
+      if (element == null) {
+        messager.printMessage(Diagnostic.Kind.ERROR, String.format(
+            "The originating elements of %s must not contain null.", name));
+      }
+      else if (!rootElements.contains(topLevelElement(element))) {
+        messager.printMessage(Diagnostic.Kind.ERROR, String.format(
+            "The originating element %s of %s is not part of the sources being compiled.", element, name),
+            element);
+      }
+    }
+  }
+
+  private static @NotNull Element topLevelElement(@NotNull Element element) {
+    Element result = element;
+    while (result.getKind() != ElementKind.PACKAGE && result.getKind() != ElementKind.MODULE) {
+      Element parent = result.getEnclosingElement();
+      if (parent == null || parent.getKind() == ElementKind.PACKAGE || parent.getKind() == ElementKind.MODULE) {
+        break;
+      }
+      result = parent;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,65 @@
+package dev.johanness.processor.segmented._internal;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Runs the tasks which were added last first. Tasks which are added between
+ * two calls of {@link #remove()} keep their order, so siblings are still run
+ * in the order in which they were created.
+ */
+final class DepthFirstTaskQueue implements TaskQueue {
+  private final @NotNull Deque<Task<?>> stack = new ArrayDeque<>();
+  private final @NotNull List<Task<?>> added = new ArrayList<>();
+
+  @Override
+  public void add(@NotNull Task<?> task) {
+    added.add(task);
+  }
+
+  @Override
+  public @NotNull Task<?> remove() {
+    pushAdded();
+    return stack.pop();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return stack.isEmpty() && added.isEmpty();
+  }
+
+  @Override
+  public int size() {
+    return stack.size() + added.size();
+  }
+
+  @Override
+  public @NotNull Iterator<Task<?>> iterator() {
+    // Iterates in the order of remove() without pushing the added tasks.
+    Iterator<Task<?>> first = added.iterator();
+    Iterator<Task<?>> second = stack.iterator();
+    return new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return first.hasNext() || second.hasNext();
+      }
+
+      @Override
+      public Task<?> next() {
+        return first.hasNext() ? first.next() : second.next();
+      }
+    };
+  }
+
+  private void pushAdded() {
+    for (int i = added.size() - 1; i >= 0; i--) {
+      stack.push(added.get(i));
+    }
+    added.clear();
+  }
+}
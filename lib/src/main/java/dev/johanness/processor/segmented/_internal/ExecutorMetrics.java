@@ -0,0 +1,294 @@
+package dev.johanness.processor.segmented._internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.annotation.processing.Messager;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collects statistics about the tasks of an executor, grouped by round and by
+ * the class of the sub-processor. Visitors are reported instead of their
+ * {@link VisitorInfo}, and all lambdas of a class share one entry.
+ * The executor only creates an instance if the metrics are enabled, so
+ * there is no overhead otherwise. The methods which record a task may be
+ * called by multiple threads at once.
+ */
+public final class ExecutorMetrics {
+
+  private final @NotNull ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+  private final boolean cpuTimeSupported = threadBean.isCurrentThreadCpuTimeSupported();
+  private final @Nullable AllocationCounter allocationCounter = AllocationCounter.create(threadBean);
+  private final @Nullable Path jsonPath;
+  private final @NotNull List<Round> rounds = new ArrayList<>();
+  private final @NotNull Map<String, long[]> caches = new LinkedHashMap<>();
+
+  /**
+   * Creates an instance which reports via the {@link Messager}, or writes
+   * the report as JSON to the given path.
+   */
+  public ExecutorMetrics(@Nullable Path jsonPath) {
+    this.jsonPath = jsonPath;
+  }
+
+  public void startRound() {
+    rounds.add(new Round(rounds.size() + 1));
+  }
+
+  public @NotNull Sample start() {
+    return new Sample(
+        System.nanoTime(),
+        cpuTimeSupported ? threadBean.getCurrentThreadCpuTime() : -1,
+        allocationCounter == null ? -1 : allocationCounter.currentThread());
+  }
+
+  public void recordRun(@NotNull Object processor, @NotNull Sample sample) {
+    long wallTime = System.nanoTime() - sample.wallTime;
+    long cpuTime = cpuTimeSupported ? threadBean.getCurrentThreadCpuTime() - sample.cpuTime : 0;
+    long allocated = allocationCounter == null ? 0 : allocationCounter.currentThread() - sample.allocated;
+    synchronized (this) {
+      Stats stats = currentRound().stats(processor);
+      stats.tasks++;
+      stats.wallTime += wallTime;
+      stats.cpuTime += cpuTime;
+      stats.allocated += allocated;
+    }
+  }
+
+  /**
+   * Records a preliminary phase which is run again, because global values
+   * changed since its first run. It is counted separately, so each task is
+   * only counted once.
+   */
+  public void recordReevaluation(@NotNull Object processor, @NotNull Sample sample) {
+    long wallTime = System.nanoTime() - sample.wallTime;
+    synchronized (this) {
+      Stats stats = currentRound().stats(processor);
+      stats.reevaluated++;
+      stats.reevaluationTime += wallTime;
+    }
+  }
+
+  public void recordActions(@NotNull Object processor, @NotNull Sample sample) {
+    long wallTime = System.nanoTime() - sample.wallTime;
+    synchronized (this) {
+      currentRound().stats(processor).actionTime += wallTime;
+    }
+  }
+
+  /**
+   * Counts a visit which ran within the task of an enclosing element. Its
+   * time is part of the run of the enclosing element.
+   */
+  public synchronized void recordInlined(@NotNull Object processor) {
+    currentRound().stats(processor).inlined++;
+  }
+
+  public synchronized void recordDeferred(@NotNull Object processor) {
+    currentRound().stats(processor).deferred++;
+  }
+
+  public void recordQueueSize(int size) {
+    Round round = currentRound();
+    round.queueHighWaterMark = Math.max(round.queueHighWaterMark, size);
+  }
+
+  /**
+   * Returns the highest number of queued tasks over all rounds.
+   */
+  public int getQueueHighWaterMark() {
+    int result = 0;
+    for (Round round : rounds) {
+      result = Math.max(result, round.queueHighWaterMark);
+    }
+    return result;
+  }
+
+  /**
+   * Records the number of hits and misses of a cache for the whole
+   * compilation. Must be called before {@link #report(Messager)}.
+   */
+  public synchronized void recordCache(@NotNull String name, long hits, long misses) {
+    caches.put(name, new long[]{hits, misses});
+  }
+
+  public void report(@NotNull Messager messager) {
+    if (jsonPath == null) {
+      messager.printMessage(Diagnostic.Kind.NOTE, toText());
+      return;
+    }
+    try {
+      Files.writeString(jsonPath, toJson());
+    }
+    catch (IOException e) {
+      messager.printMessage(Diagnostic.Kind.WARNING, "Cannot write executor metrics to " + jsonPath + ": " + e);
+    }
+  }
+
+  private @NotNull Round currentRound() {
+    return rounds.get(rounds.size() - 1);
+  }
+
+  private @NotNull String toText() {
+    StringBuilder builder = new StringBuilder("Executor metrics");
+    if (!cpuTimeSupported || allocationCounter == null) {
+      builder.append(" (CPU time or allocations not supported by this JVM)");
+    }
+    for (Round round : rounds) {
+      builder.append(String.format(Locale.ROOT, "%nRound %d, queue high-water mark %d", round.number, round.queueHighWaterMark));
+      round.stats.forEach((processor, stats) -> builder.append(String.format(
+          Locale.ROOT,
+          "%n  %s: tasks %d, inlined %d, deferred %d, wall %.3f ms, cpu %.3f ms, allocated %d KiB, actions %.3f ms, " +
+          "re-evaluated %d, re-evaluation %.3f ms",
+          processor, stats.tasks, stats.inlined, stats.deferred, stats.wallTime / 1e6, stats.cpuTime / 1e6,
+          stats.allocated / 1024, stats.actionTime / 1e6, stats.reevaluated, stats.reevaluationTime / 1e6)));
+    }
+    caches.forEach((name, counts) -> builder.append(String.format(
+        Locale.ROOT, "%nCache %s: hits %d, misses %d", name, counts[0], counts[1])));
+    return builder.toString();
+  }
+
+  private @NotNull String toJson() {
+    StringBuilder builder = new StringBuilder("{\"rounds\":[");
+    for (int i = 0; i < rounds.size(); i++) {
+      Round round = rounds.get(i);
+      builder.append(i == 0 ? "" : ",")
+          .append("{\"round\":").append(round.number)
+          .append(",\"queueHighWaterMark\":").append(round.queueHighWaterMark)
+          .append(",\"processors\":[");
+      String separator = "";
+      for (Map.Entry<String, Stats> entry : round.stats.entrySet()) {
+        Stats stats = entry.getValue();
+        builder.append(separator)
+            .append("{\"name\":\"").append(escape(entry.getKey())).append('"')
+            .append(",\"tasks\":").append(stats.tasks)
+            .append(",\"inlined\":").append(stats.inlined)
+            .append(",\"deferred\":").append(stats.deferred)
+            .append(",\"wallNanos\":").append(stats.wallTime)
+            .append(",\"cpuNanos\":").append(stats.cpuTime)
+            .append(",\"allocatedBytes\":").append(stats.allocated)
+            .append(",\"actionNanos\":").append(stats.actionTime)
+            .append(",\"reevaluated\":").append(stats.reevaluated)
+            .append(",\"reevaluationNanos\":").append(stats.reevaluationTime)
+            .append('}');
+        separator = ",";
+      }
+      builder.append("]}");
+    }
+    builder.append("],\"caches\":[");
+    String separator = "";
+    for (Map.Entry<String, long[]> entry : caches.entrySet()) {
+      builder.append(separator)
+          .append("{\"name\":\"").append(escape(entry.getKey())).append('"')
+          .append(",\"hits\":").append(entry.getValue()[0])
+          .append(",\"misses\":").append(entry.getValue()[1])
+          .append('}');
+      separator = ",";
+    }
+    return builder.append("]}\n").toString();
+  }
+
+  private static @NotNull String name(@NotNull Object processor) {
+    Object unwrapped = processor instanceof VisitorInfo ? ((VisitorInfo) processor).getVisitor() : processor;
+    String name = unwrapped.getClass().getName();
+    // Strip the suffix which identifies the generated class of a lambda.
+    int lambda = name.indexOf("$$Lambda");
+    return lambda < 0 ? name : name.substring(0, lambda + "$$Lambda".length());
+  }
+
+  private static @NotNull String escape(@NotNull String string) {
+    StringBuilder builder = new StringBuilder(string.length());
+    for (int i = 0; i < string.length(); i++) {
+      char c = string.charAt(i);
+      if (c == '"' || c == '\\') {
+        builder.append('\\').append(c);
+      }
+      else if (c < 0x20) {
+        builder.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+      }
+      else {
+        builder.append(c);
+      }
+    }
+    return builder.toString();
+  }
+
+  public static final class Sample {
+    private final long wallTime;
+    private final long cpuTime;
+    private final long allocated;
+
+    private Sample(long wallTime, long cpuTime, long allocated) {
+      this.wallTime = wallTime;
+      this.cpuTime = cpuTime;
+      this.allocated = allocated;
+    }
+  }
+
+  private static final class Round {
+    private final int number;
+    private final @NotNull Map<String, Stats> stats = new LinkedHashMap<>();
+    private int queueHighWaterMark;
+
+    private Round(int number) {
+      this.number = number;
+    }
+
+    private @NotNull Stats stats(@NotNull Object processor) {
+      return stats.computeIfAbsent(name(processor), name -> new Stats());
+    }
+  }
+
+  private static final class Stats {
+    private long tasks;
+    private long inlined;
+    private long deferred;
+    private long wallTime;
+    private long cpuTime;
+    private long allocated;
+    private long actionTime;
+    private long reevaluated;
+    private long reevaluationTime;
+  }
+
+  /**
+   * Reads the allocated bytes of the current thread. The method is only
+   * available via {@code com.sun.management}, which may be missing.
+   */
+  private static final class AllocationCounter {
+    private final @NotNull com.sun.management.ThreadMXBean bean;
+
+    private AllocationCounter(@NotNull com.sun.management.ThreadMXBean bean) {
+      this.bean = bean;
+    }
+
+    private static @Nullable AllocationCounter create(@NotNull ThreadMXBean bean) {
+      try {
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+          com.sun.management.ThreadMXBean extendedBean = (com.sun.management.ThreadMXBean) bean;
+          if (extendedBean.isThreadAllocatedMemorySupported() && extendedBean.isThreadAllocatedMemoryEnabled()) {
+            return new AllocationCounter(extendedBean);
+          }
+        }
+      }
+      catch (LinkageError e) {
+        // The module jdk.management is not available.
+      }
+      return null;
+    }
+
+    private long currentThread() {
+      return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+  }
+}
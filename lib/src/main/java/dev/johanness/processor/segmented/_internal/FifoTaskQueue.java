@@ -0,0 +1,36 @@
+package dev.johanness.processor.segmented._internal;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+
+final class FifoTaskQueue implements TaskQueue {
+  private final @NotNull Queue<Task<?>> queue = new ArrayDeque<>();
+
+  @Override
+  public void add(@NotNull Task<?> task) {
+    queue.add(task);
+  }
+
+  @Override
+  public @NotNull Task<?> remove() {
+    return queue.remove();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return queue.isEmpty();
+  }
+
+  @Override
+  public int size() {
+    return queue.size();
+  }
+
+  @Override
+  public @NotNull Iterator<Task<?>> iterator() {
+    return queue.iterator();
+  }
+}
@@ -0,0 +1,202 @@
+package dev.johanness.processor.segmented._internal;
+
+import dev.johanness.processor.segmented.Key;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Immutable mapping from {@link Key keys} to values. The values are stored in
+ * a bitmap-compressed trie which is indexed by {@link Key#id()}. Updates copy
+ * only the path to the modified entry, so different versions share most of
+ * their structure. As key ids are dense, the depth of the trie is at most two
+ * for the first thousand keys.
+ * <p>
+ * The values of a child task are {@linkplain #inherit() inherited} from its
+ * parent. Setting a key to {@code null} reverts it to the inherited value,
+ * or removes it if there is none.
+ */
+public final class KeyValues {
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+  private static final @NotNull Object ABSENT = new Object();
+  private static final @NotNull Object NULL = new Object();
+  private static final @NotNull Node EMPTY_NODE = new Node(0, new Object[0]);
+  private static final @NotNull KeyValues EMPTY = new KeyValues(EMPTY_NODE, 0, null);
+
+  private final @NotNull Node root;
+  private final int shift;
+  // The values this instance was inherited from, or null if there are none.
+  private final @Nullable KeyValues inherited;
+
+  private KeyValues(@NotNull Node root, int shift, @Nullable KeyValues inherited) {
+    this.root = root;
+    this.shift = shift;
+    this.inherited = inherited;
+  }
+
+  public static @NotNull KeyValues empty() {
+    return EMPTY;
+  }
+
+  public boolean contains(@NotNull Key<?> key) {
+    Object entry = find(key.id());
+    return entry != ABSENT && entry != NULL;
+  }
+
+  public <T> @Nullable T get(@NotNull Key<T> key) {
+    return get(key, null);
+  }
+
+  /**
+   * Returns the value of the given key. If the key is not contained in this
+   * instance, the value is looked up in the given fallback.
+   */
+  public <T> @Nullable T get(@NotNull Key<T> key, @Nullable KeyValues fallback) {
+    Object result = find(key.id());
+    if (result == ABSENT || result == NULL) {
+      return fallback == null ? null : fallback.get(key);
+    }
+    @SuppressWarnings("unchecked") T value = (T) result;
+    return value;
+  }
+
+  /**
+   * Returns a new instance which maps the given key to the given value. If
+   * the value is {@code null}, the key is reverted to the value inherited via
+   * {@link #inherit()}. Without an inherited value, the key is not contained
+   * in the result, so {@link #get(Key, KeyValues)} uses the fallback.
+   */
+  @Contract(pure = true)
+  public <T> @NotNull KeyValues with(@NotNull Key<T> key, @Nullable T value) {
+    if (value != null) {
+      return withEntry(key.id(), value);
+    }
+    Object entry = inherited == null ? ABSENT : inherited.find(key.id());
+    if (entry == ABSENT) {
+      return find(key.id()) == ABSENT ? this : withEntry(key.id(), NULL);
+    }
+    return withEntry(key.id(), entry);
+  }
+
+  /**
+   * Returns the values for a child task. They contain the same values as this
+   * instance, but setting a key to {@code null} reverts it to the value of
+   * this instance.
+   */
+  @Contract(pure = true)
+  public @NotNull KeyValues inherit() {
+    // Without any values, there is nothing a key could be reverted to.
+    return root.bitmap == 0 ? EMPTY : new KeyValues(root, shift, this);
+  }
+
+  /**
+   * Applies all changes which lead from {@code base} to {@code changed} onto
+   * this instance. Subtrees which are shared by {@code base} and
+   * {@code changed} are skipped, so the costs depend on the number of changes.
+   */
+  @Contract(pure = true)
+  public @NotNull KeyValues withChanges(@NotNull KeyValues base, @NotNull KeyValues changed) {
+    if (base == changed) {
+      return this;
+    }
+    if (base == this) {
+      return changed;
+    }
+    if (base.shift > changed.shift) {
+      throw new IllegalArgumentException("changed is not derived from base");
+    }
+    Node baseRoot = base.root;
+    for (int s = base.shift; s < changed.shift; s += BITS) {
+      baseRoot = baseRoot.bitmap == 0 ? baseRoot : new Node(1, new Object[]{baseRoot});
+    }
+    return applyChanges(baseRoot, changed.root, changed.shift, 0, this);
+  }
+
+  private @NotNull Object find(int id) {
+    if ((id >>> shift) > MASK) {
+      return ABSENT;
+    }
+    Node node = root;
+    for (int s = shift; ; s -= BITS) {
+      int bit = 1 << ((id >>> s) & MASK);
+      if ((node.bitmap & bit) == 0) {
+        return ABSENT;
+      }
+      Object entry = node.entries[Integer.bitCount(node.bitmap & (bit - 1))];
+      if (s == 0) {
+        return entry;
+      }
+      node = (Node) entry;
+    }
+  }
+
+  private static @NotNull KeyValues applyChanges(@NotNull Node base, @NotNull Node changed, int shift, int prefix, @NotNull KeyValues target) {
+    if (base == changed) {
+      return target;
+    }
+    KeyValues result = target;
+    for (int index = 0; index <= MASK; index++) {
+      int bit = 1 << index;
+      if ((changed.bitmap & bit) == 0) {
+        continue;
+      }
+      Object changedEntry = changed.entries[Integer.bitCount(changed.bitmap & (bit - 1))];
+      Object baseEntry = (base.bitmap & bit) == 0 ? null : base.entries[Integer.bitCount(base.bitmap & (bit - 1))];
+      int id = prefix | (index << shift);
+      if (shift == 0) {
+        if (changedEntry != baseEntry) {
+          result = result.withEntry(id, changedEntry);
+        }
+      }
+      else {
+        result = applyChanges(baseEntry == null ? EMPTY_NODE : (Node) baseEntry, (Node) changedEntry, shift - BITS, id, result);
+      }
+    }
+    return result;
+  }
+
+  private @NotNull KeyValues withEntry(int id, @NotNull Object entry) {
+    Node newRoot = root;
+    int newShift = shift;
+    while ((id >>> newShift) > MASK) {
+      newShift += BITS;
+      newRoot = newRoot.bitmap == 0 ? newRoot : new Node(1, new Object[]{newRoot});
+    }
+    newRoot = newRoot.with(id, newShift, entry);
+    return newRoot == root ? this : new KeyValues(newRoot, newShift, inherited);
+  }
+
+  private static final class Node {
+    private final int bitmap;
+    private final @NotNull Object @NotNull [] entries;
+
+    private Node(int bitmap, @NotNull Object @NotNull [] entries) {
+      this.bitmap = bitmap;
+      this.entries = entries;
+    }
+
+    private @NotNull Node with(int id, int shift, @NotNull Object entry) {
+      int bit = 1 << ((id >>> shift) & MASK);
+      int index = Integer.bitCount(bitmap & (bit - 1));
+      if ((bitmap & bit) == 0) {
+        Object newEntry = shift == 0 ? entry : EMPTY_NODE.with(id, shift - BITS, entry);
+        Object[] newEntries = new Object[entries.length + 1];
+        System.arraycopy(entries, 0, newEntries, 0, index);
+        newEntries[index] = newEntry;
+        System.arraycopy(entries, index, newEntries, index + 1, entries.length - index);
+        return new Node(bitmap | bit, newEntries);
+      }
+      Object oldEntry = entries[index];
+      Object newEntry = shift == 0 ? entry : ((Node) oldEntry).with(id, shift - BITS, entry);
+      if (newEntry == oldEntry) {
+        return this;
+      }
+      Object[] newEntries = Arrays.copyOf(entries, entries.length);
+      newEntries[index] = newEntry;
+      return new Node(bitmap, newEntries);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package dev.johanness.processor.segmented._internal;
+
+import dev.johanness.processor.segmented.SubProcessor;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Runs the tasks of sub-processors which have unblocked other tasks before
+ * all other tasks. Otherwise, the tasks are run in the order in which they
+ * were added.
+ */
+final class PriorityTaskQueue implements TaskQueue {
+  private final @NotNull Set<SubProcessor<?>> unblocking = Collections.newSetFromMap(new IdentityHashMap<>());
+  private final @NotNull Queue<Task<?>> preferred = new ArrayDeque<>();
+  private final @NotNull Queue<Task<?>> remaining = new ArrayDeque<>();
+
+  @Override
+  public void add(@NotNull Task<?> task) {
+    if (unblocking.contains(task.getSubProcessor())) {
+      preferred.add(task);
+    }
+    else {
+      remaining.add(task);
+    }
+  }
+
+  @Override
+  public @NotNull Task<?> remove() {
+    Task<?> task = preferred.poll();
+    if (task == null) {
+      task = remaining.poll();
+    }
+    if (task == null) {
+      throw new NoSuchElementException();
+    }
+    return task;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return preferred.isEmpty() && remaining.isEmpty();
+  }
+
+  @Override
+  public int size() {
+    return preferred.size() + remaining.size();
+  }
+
+  @Override
+  public void markUnblocking(@NotNull SubProcessor<?> processor) {
+    unblocking.add(processor);
+  }
+
+  @Override
+  public @NotNull Iterator<Task<?>> iterator() {
+    Iterator<Task<?>> first = preferred.iterator();
+    Iterator<Task<?>> second = remaining.iterator();
+    return new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return first.hasNext() || second.hasNext();
+      }
+
+      @Override
+      public Task<?> next() {
+        return first.hasNext() ? first.next() : second.next();
+      }
+    };
+  }
+}
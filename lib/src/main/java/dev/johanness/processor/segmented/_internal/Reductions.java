@@ -0,0 +1,41 @@
+package dev.johanness.processor.segmented._internal;
+
+import dev.johanness.processor.segmented.ReductionKey;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Values contributed to {@link ReductionKey reduction keys}. Values for the
+ * same key are merged in the order in which they are added.
+ */
+public final class Reductions {
+  private final @NotNull Map<ReductionKey<?>, Object> values = new LinkedHashMap<>();
+
+  public <T> void add(@NotNull ReductionKey<T> key, @NotNull T value) {
+    values.merge(key, value, (first, second) -> {
+      @SuppressWarnings("unchecked") T result = key.merge((T) first, (T) second);
+      return result;
+    });
+  }
+
+  public void addAll(@NotNull Reductions other) {
+    for (Map.Entry<ReductionKey<?>, Object> entry : other.values.entrySet()) {
+      @SuppressWarnings("unchecked") ReductionKey<Object> key = (ReductionKey<Object>) entry.getKey();
+      add(key, entry.getValue());
+    }
+  }
+
+  /**
+   * Returns the given values with the merged value of each reduction key.
+   */
+  public @NotNull KeyValues applyTo(@NotNull KeyValues target) {
+    KeyValues result = target;
+    for (Map.Entry<ReductionKey<?>, Object> entry : values.entrySet()) {
+      @SuppressWarnings("unchecked") ReductionKey<Object> key = (ReductionKey<Object>) entry.getKey();
+      result = result.with(key.key(), entry.getValue());
+    }
+    return result;
+  }
+}
@@ -0,0 +1,118 @@
+package dev.johanness.processor.segmented._internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs render jobs on worker threads, and passes their results to writers on
+ * the thread of the annotation processing round. The writers run in the
+ * order in which the jobs were submitted, so the output does not depend on
+ * the scheduling of the worker threads.
+ */
+public final class RenderQueue {
+  private final @NotNull List<Pending<?>> pending = new ArrayList<>();
+  private @Nullable ExecutorService executorService;
+
+  public <T> void submit(@NotNull Supplier<T> job, @NotNull Consumer<? super T> writer) {
+    if (executorService == null) {
+      executorService = newExecutorService();
+    }
+    pending.add(new Pending<>(CompletableFuture.supplyAsync(job, executorService), writer));
+  }
+
+  /**
+   * Waits for all submitted jobs and runs their writers in order. Jobs which
+   * are submitted by the writers are written as well. A failing job or
+   * writer does not prevent the remaining writes. The first exception is
+   * rethrown by this method once all jobs are written, further exceptions
+   * are added as suppressed.
+   */
+  public void flush() {
+    Throwable failure = null;
+    // The list may grow while it is processed.
+    int processed = 0;
+    while (processed < pending.size()) {
+      Pending<?> next = pending.get(processed++);
+      try {
+        next.write();
+      }
+      catch (RuntimeException | Error e) {
+        if (failure == null) {
+          failure = e;
+        }
+        else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    pending.subList(0, processed).clear();
+    if (failure instanceof Error) {
+      throw (Error) failure;
+    }
+    else if (failure != null) {
+      throw (RuntimeException) failure;
+    }
+  }
+
+  public void shutdown() {
+    if (executorService != null) {
+      executorService.shutdown();
+      executorService = null;
+    }
+  }
+
+  private static @NotNull ExecutorService newExecutorService() {
+    try {
+      // Virtual threads are only available since Java 21.
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    }
+    catch (ReflectiveOperationException e) {
+      return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+        Thread thread = new Thread(runnable, "segmented-render");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  private static final class Pending<T> {
+    private final @NotNull CompletableFuture<T> future;
+    private final @NotNull Consumer<? super T> writer;
+
+    private Pending(@NotNull CompletableFuture<T> future, @NotNull Consumer<? super T> writer) {
+      this.future = future;
+      this.writer = writer;
+    }
+
+    private void write() {
+      T result;
+      try {
+        result = future.join();
+      }
+      catch (CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        else if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        else {
+          throw e;
+        }
+      }
+      writer.accept(result);
+    }
+  }
+}
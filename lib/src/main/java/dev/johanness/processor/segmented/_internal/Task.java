@@ -6,20 +6,30 @@
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-import java.util.function.Function;
-import java.util.stream.Stream;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 
 public final class Task<T> {
   private final @NotNull SubProcessor<T> subProcessor;
   private final T item;
 
-  private final @NotNull KeyValueMap propagatedValues = new KeyValueMap();
-  private final @NotNull Set<Task<?>> children = new HashSet<>();
-  private final @NotNull Set<Task<?>> finalizers = new HashSet<>();
+  private @NotNull KeyValues values = KeyValues.empty();
+  private @Nullable List<Task<?>> finalizers;
   private @Nullable Task<?> owner;
+  // Number of children which have not finished yet, plus one as long as the
+  // task itself has not finished. While the finalizers are running, the
+  // counter refers to the finalizers instead of the children.
+  private int pending = 1;
+  private int deferrals;
+  private int stalledRounds;
+  private @Nullable KeyValues deferredGlobals;
+  // Position of the task among the children and finalizers of its owner,
+  // which defines the order in which the reductions are merged.
+  private int index;
+  private int assigned;
+  private @Nullable Reductions reductions;
+  private @Nullable TreeMap<Integer, Reductions> childReductions;
 
   public Task(@NotNull SubProcessor<T> subProcessor, T item) {
     this.subProcessor = subProcessor;
@@ -34,69 +44,143 @@ public T getItem() {
     return subProcessor;
   }
 
-  public @NotNull KeyValueMap getMap() {
-    return propagatedValues;
+  public @NotNull KeyValues getValues() {
+    return values;
+  }
+
+  public void setValues(@NotNull KeyValues values) {
+    this.values = values;
+  }
+
+  /**
+   * Returns the task which owns this task, i.e. the task which added this
+   * task as a child or finalizer.
+   */
+  public @Nullable Task<?> getOwner() {
+    return owner;
+  }
+
+  /**
+   * Records that the task was deferred. A task which is deferred to the next
+   * round while the same globals are visible as when it was deferred the
+   * last time is considered stalled, as nothing it could observe changed.
+   *
+   * @param globals the globals, or {@code null} if the task is blocked.
+   */
+  public void defer(@Nullable KeyValues globals) {
+    deferrals++;
+    stalledRounds = globals != null && globals == deferredGlobals ? stalledRounds + 1 : 0;
+    deferredGlobals = globals;
+  }
+
+  public int getDeferrals() {
+    return deferrals;
+  }
+
+  /**
+   * Returns the number of consecutive rounds in which the task was stalled.
+   */
+  public int getStalledRounds() {
+    return stalledRounds;
   }
 
   public void addChild(@NotNull Task<?> child) {
-    if (child.owner != null && child.owner != this) {
-      throw new IllegalArgumentException("Task already assigned to another task");
-    }
-    if (finalizers.contains(child)) {
-      throw new IllegalArgumentException("Task already assigned as action");
-    }
-    if (children.add(child)) {
-      child.owner = this;
-      child.propagatedValues.setFallback(propagatedValues);
-    }
+    assign(child);
+    pending++;
   }
 
-  public void addFinalizer(@NotNull Task<?> action) {
-    if (action.owner != null && action.owner != this) {
-      throw new IllegalArgumentException("Task already assigned to another task");
-    }
-    if (children.contains(action)) {
-      throw new IllegalArgumentException("Task already assigned as child");
+  public void addFinalizer(@NotNull Task<?> finalizer) {
+    assign(finalizer);
+    if (finalizers == null) {
+      finalizers = new ArrayList<>(1);
     }
-    if (finalizers.add(action)) {
-      action.owner = this;
-      action.propagatedValues.setFallback(propagatedValues);
+    finalizers.add(finalizer);
+  }
+
+  /**
+   * Adds values contributed by the task itself. They are merged with the
+   * values of the children once they have finished.
+   */
+  public void contribute(@NotNull Reductions contributions) {
+    if (reductions == null) {
+      reductions = new Reductions();
     }
+    reductions.addAll(contributions);
+  }
+
+  /**
+   * Adds values contributed on behalf of an element which did not get a task
+   * of its own. They are merged as if they were contributed by a child which
+   * was added at this point.
+   */
+  public void contributeAsChild(@NotNull Reductions contributions) {
+    childFinished(assigned++, contributions);
   }
 
   public boolean run(@NotNull Preliminary preliminary) {
     return subProcessor.process(item, preliminary);
   }
 
-  public @NotNull Stream<Task<?>> finish() {
-    List<Stream<Task<?>>> containers = new ArrayList<>();
-    containers.add(children.stream());
-    if (children.isEmpty()) {
-      containers.add(finalizers.stream());
-      if (finalizers.isEmpty() && owner != null) {
-        containers.add(owner.childFinished(this));
-      }
+  /**
+   * Marks the task itself as finished. Tasks which become runnable as a
+   * consequence are passed to the given consumer. These are the finalizers of
+   * this task or of one of its ancestors, once all their children have
+   * finished.
+   */
+  public void finish(@NotNull Consumer<? super Task<?>> scheduler) {
+    release(scheduler);
+  }
+
+  private void assign(@NotNull Task<?> task) {
+    if (task.owner != null) {
+      throw new IllegalArgumentException("Task already assigned to a task");
     }
-    return containers.stream().flatMap(Function.identity());
+    task.owner = this;
+    task.values = values.inherit();
+    task.index = assigned++;
   }
 
-  private @NotNull Stream<Task<?>> childFinished(@NotNull Task<?> origin) {
-    assert children.contains(origin) || finalizers.contains(origin);
-    assert !children.contains(origin) || !finalizers.contains(origin);
-    if (children.remove(origin) && children.isEmpty()) {
-      if (finalizers.isEmpty() && owner != null) {
-        return owner.childFinished(this);
+  private void release(@NotNull Consumer<? super Task<?>> scheduler) {
+    if (--pending > 0) {
+      return;
+    }
+    mergeChildReductions();
+    List<Task<?>> currentFinalizers = finalizers;
+    if (currentFinalizers != null) {
+      finalizers = null;
+      pending = currentFinalizers.size();
+      if (reductions != null) {
+        for (Task<?> finalizer : currentFinalizers) {
+          finalizer.values = reductions.applyTo(finalizer.values);
+        }
       }
-      else {
-        return finalizers.stream();
+      currentFinalizers.forEach(scheduler);
+    }
+    else if (owner != null) {
+      if (reductions != null) {
+        owner.childFinished(index, reductions);
+        reductions = null;
       }
+      owner.release(scheduler);
     }
-    else if (finalizers.remove(origin) && finalizers.isEmpty() && owner != null) {
-      return owner.childFinished(this);
+  }
+
+  private void childFinished(int childIndex, @NotNull Reductions childReductions) {
+    if (this.childReductions == null) {
+      this.childReductions = new TreeMap<>();
+    }
+    this.childReductions.put(childIndex, childReductions);
+  }
+
+  private void mergeChildReductions() {
+    if (childReductions == null) {
+      return;
     }
-    else {
-      return Stream.empty();
+    if (reductions == null) {
+      reductions = new Reductions();
     }
+    childReductions.values().forEach(reductions::addAll);
+    childReductions = null;
   }
 
   @Override
@@ -0,0 +1,43 @@
+package dev.johanness.processor.segmented._internal;
+
+import dev.johanness.processor.segmented.SchedulingStrategy;
+import dev.johanness.processor.segmented.SubProcessor;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Queue of the tasks which are ready to run. The implementation decides in
+ * which order the tasks are run.
+ */
+public interface TaskQueue extends Iterable<Task<?>> {
+  static @NotNull TaskQueue create(@NotNull SchedulingStrategy strategy) {
+    switch (strategy) {
+      case FIFO:
+        return new FifoTaskQueue();
+      case DEPTH_FIRST:
+        return new DepthFirstTaskQueue();
+      case PRIORITY:
+        return new PriorityTaskQueue();
+      default:
+        throw new IllegalArgumentException("Unknown strategy: " + strategy);
+    }
+  }
+
+  void add(@NotNull Task<?> task);
+
+  /**
+   * Removes the task which shall run next.
+   *
+   * @throws java.util.NoSuchElementException if the queue is empty.
+   */
+  @NotNull Task<?> remove();
+
+  boolean isEmpty();
+
+  int size();
+
+  /**
+   * Records that a task of the given sub-processor unblocked other tasks.
+   */
+  default void markUnblocking(@NotNull SubProcessor<?> processor) {
+  }
+}
@@ -1,65 +1,193 @@
 package dev.johanness.processor.segmented._internal;
 
-import dev.johanness.processor.AnnotationAccess;
-import dev.johanness.processor.AnnotationType;
+import dev.johanness.processor.AnnotationTypeSet;
 import dev.johanness.processor.segmented.Preliminary;
 import dev.johanness.processor.segmented.SubProcessor;
+import dev.johanness.processor.segmented.ThreadSafe;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import javax.lang.model.AnnotatedConstruct;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ElementVisitor;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 public final class VisitorInfo implements SubProcessor<@NotNull Element> {
+  private static final long ALL_KINDS = -1L;
+  private static final long NOT_DESCENDED = bit(ElementKind.PACKAGE) | bit(ElementKind.MODULE);
+  // Indexed by ordinal, the kinds which elements of the kind may enclose.
+  private static final long @NotNull [] ENCLOSED_KINDS = enclosedKinds();
+
   private final @NotNull ElementVisitor<Boolean, Preliminary> visitor;
-  private final @Nullable Set<ElementKind> kinds;
-  private final @Nullable Set<AnnotationType<?>> annotationTypes;
-  private final boolean recursive;
+  // Masks over the ordinals of ElementKind, see bit(ElementKind).
+  private final long kinds;
+  private final long containers;
+  private final long reachable;
+  private final @Nullable AnnotationTypeSet annotationTypes;
 
   public VisitorInfo(@NotNull ElementVisitor<Boolean, Preliminary> visitor,
                      @Nullable Set<ElementKind> kinds,
-                     @Nullable Set<? extends AnnotationType<?>> annotationTypes,
+                     @Nullable AnnotationTypeSet annotationTypes,
                      boolean recursive)
   {
     this.visitor = visitor;
-    this.kinds = kinds == null ? null : Set.copyOf(kinds);
-    this.annotationTypes = annotationTypes == null ? null : Set.copyOf(annotationTypes);
-    this.recursive = recursive;
+    this.kinds = kinds == null ? ALL_KINDS : mask(kinds);
+    this.containers = !recursive ? 0L : kinds == null ? ALL_KINDS & ~NOT_DESCENDED : containersOf(this.kinds);
+    this.reachable = this.kinds | this.containers;
+    this.annotationTypes = annotationTypes;
     // TODO: We could validate the given visitor against the given kinds and annotation types.
     //  i.e. does the visitor implement all the methods it has to implement?
   }
 
+  public @NotNull ElementVisitor<Boolean, Preliminary> getVisitor() {
+    return visitor;
+  }
+
+  public @Nullable AnnotationTypeSet getAnnotationTypes() {
+    return annotationTypes;
+  }
+
+  public boolean isThreadSafe() {
+    return visitor instanceof ThreadSafe;
+  }
+
+  public boolean matches(@NotNull Element element) {
+    return contains(kinds, element.getKind()) && (annotationTypes == null || annotationTypes.matchesAny(element));
+  }
+
+  /**
+   * Returns whether the visitor descends into the given element. Elements
+   * which cannot enclose an element of the requested kinds are skipped.
+   */
+  public boolean descendsInto(@NotNull Element element) {
+    return contains(containers, element.getKind());
+  }
+
+  /**
+   * Returns whether the given element may be visited by this visitor, either
+   * because it matches the requested kinds or because it may enclose an
+   * element which matches.
+   */
+  public boolean reaches(@NotNull Element element) {
+    return contains(reachable, element.getKind());
+  }
+
+  /**
+   * Returns the enclosed elements of the given element which are
+   * {@linkplain #reaches(Element) reached} by this visitor.
+   */
+  public @NotNull List<? extends Element> getEnclosedElements(@NotNull Element element) {
+    List<? extends Element> enclosedElements = element.getEnclosedElements();
+    if (reachable == ALL_KINDS) {
+      return enclosedElements;
+    }
+    List<Element> result = new ArrayList<>(enclosedElements.size());
+    for (Element enclosed : enclosedElements) {
+      if (reaches(enclosed)) {
+        result.add(enclosed);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Calls the visitor for the given element, without checking whether the
+   * element {@linkplain #matches(Element) matches} and without descending
+   * into the enclosed elements.
+   */
+  public boolean visit(@NotNull Element element, @NotNull Preliminary preliminary) {
+    return element.accept(visitor, preliminary);
+  }
+
   @Override
   public boolean process(@NotNull Element element, @NotNull Preliminary preliminary) {
-    if (kindMatches(element, kinds) && annotationsMatch(element, annotationTypes)) {
-      if (!element.accept(visitor, preliminary)) {
-        return false;
-      }
+    if (matches(element) && !visit(element, preliminary)) {
+      return false;
     }
-    if (recursive && element.getKind() != ElementKind.MODULE && element.getKind() != ElementKind.PACKAGE) {
-      for (Element enclosedElement : element.getEnclosedElements()) {
-        preliminary.process(enclosedElement, this);
-      }
+    if (descendsInto(element)) {
+      preliminary.processEnclosed(getEnclosedElements(element), this);
     }
     return true;
   }
 
-  private static boolean kindMatches(@NotNull Element construct, @Nullable Set<ElementKind> kinds) {
-    return kinds == null || kinds.contains(construct.getKind());
+  @Override
+  public String toString() {
+    return "VisitorInfo{visitor=" + visitor + '}';
+  }
+
+  private static long bit(@NotNull ElementKind kind) {
+    // ElementKind has far fewer than 64 constants. Should that ever change,
+    // the remaining kinds are treated as contained in every mask.
+    int ordinal = kind.ordinal();
+    return ordinal < Long.SIZE ? 1L << ordinal : 0L;
   }
 
-  private static boolean annotationsMatch(@NotNull AnnotatedConstruct construct, @Nullable Set<AnnotationType<?>> types) {
-    if (types == null) {
-      return true;
+  private static boolean contains(long mask, @NotNull ElementKind kind) {
+    int ordinal = kind.ordinal();
+    return ordinal >= Long.SIZE || (mask & 1L << ordinal) != 0;
+  }
+
+  private static long mask(@NotNull Set<ElementKind> kinds) {
+    long mask = 0L;
+    for (ElementKind kind : kinds) {
+      mask |= bit(kind);
     }
-    for (AnnotationType<?> type : types) {
-      if (AnnotationAccess.hasAnnotation(construct, type)) {
-        return true;
+    return mask;
+  }
+
+  /**
+   * Returns the kinds of elements which may directly or indirectly enclose
+   * an element of the given kinds, excluding packages and modules.
+   */
+  private static long containersOf(long kinds) {
+    long result = 0L;
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (ElementKind kind : ElementKind.values()) {
+        long bit = bit(kind);
+        if ((result & bit) == 0 && (NOT_DESCENDED & bit) == 0 && (ENCLOSED_KINDS[kind.ordinal()] & (kinds | result)) != 0) {
+          result |= bit;
+          changed = true;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Follows {@link Element#getEnclosedElements()}: Modules enclose packages,
+   * packages enclose types, and types enclose types and their members. Other
+   * kinds of elements do not enclose any elements.
+   */
+  private static long @NotNull [] enclosedKinds() {
+    long types = 0L;
+    long members = 0L;
+    for (ElementKind kind : ElementKind.values()) {
+      if (kind.isClass() || kind.isInterface()) {
+        types |= bit(kind);
+      }
+      else if (kind.isField() || kind.name().equals("RECORD_COMPONENT")) {
+        members |= bit(kind);
+      }
+    }
+    members |= bit(ElementKind.METHOD) | bit(ElementKind.CONSTRUCTOR) | bit(ElementKind.STATIC_INIT) | bit(ElementKind.INSTANCE_INIT);
+
+    ElementKind[] values = ElementKind.values();
+    long[] result = new long[values.length];
+    for (ElementKind kind : values) {
+      if (kind == ElementKind.MODULE) {
+        result[kind.ordinal()] = bit(ElementKind.PACKAGE);
+      }
+      else if (kind == ElementKind.PACKAGE) {
+        result[kind.ordinal()] = types;
+      }
+      else if (kind.isClass() || kind.isInterface()) {
+        result[kind.ordinal()] = types | members;
       }
     }
-    return false;
+    return result;
   }
 }
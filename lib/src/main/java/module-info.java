@@ -1,5 +1,7 @@
 module dev.johanness.processor {
   requires transitive java.compiler;
+  requires java.management;
+  requires static jdk.management;
   requires static org.jetbrains.annotations;
   exports dev.johanness.processor;
   exports dev.johanness.processor.annotation;
@@ -0,0 +1,204 @@
+package dev.johanness.processor;
+
+import dev.johanness.processor.AnnotationFixtures.SimpleAnnotationType;
+import dev.johanness.processor._types.TopLevelAnnotation;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import javax.lang.model.AnnotatedConstruct;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import java.lang.annotation.Documented;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.util.List;
+
+import static dev.johanness.processor.AnnotationFixtures.mirror;
+import static dev.johanness.processor.TypeFixtures.declared;
+import static dev.johanness.processor.TypeFixtures.mirror;
+import static dev.johanness.processor.TypeFixtures.none;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+final class AnnotationAccessTest {
+  private static final AnnotationType<AnnotationMirror> TOP_LEVEL = new SimpleAnnotationType(TopLevelAnnotation.class);
+  private static final AnnotationType<AnnotationMirror> NESTED = new SimpleAnnotationType(TopLevelAnnotation.NestedAnnotation.class);
+
+  @Test
+  void testFindAll() {
+    AnnotationMirror first = mirror(TopLevelAnnotation.class.getCanonicalName());
+    AnnotationMirror second = mirror(TopLevelAnnotation.class.getCanonicalName());
+    AnnotatedConstruct construct = construct(first, second);
+
+    assertTrue(AnnotationAccess.has(construct, TOP_LEVEL));
+    assertFalse(AnnotationAccess.has(construct, NESTED));
+    assertEquals(List.of(first, second), AnnotationAccess.findAll(construct, TOP_LEVEL));
+  }
+
+  @Test
+  void testMirrorIndex() {
+    AnnotationMirror mirror = mirror(TopLevelAnnotation.class.getCanonicalName());
+    AnnotatedConstruct construct = construct(mirror);
+    AnnotationCache cache = new AnnotationCache();
+    cache.enableMirrorIndex(10);
+
+    AnnotationCache.Scope scope = cache.activate();
+    try {
+      assertEquals(mirror, AnnotationAccess.find(construct, TOP_LEVEL));
+      assertFalse(AnnotationAccess.has(construct, NESTED));
+      verify(construct, times(1)).getAnnotationMirrors();
+
+      cache.clear();
+      assertEquals(mirror, AnnotationAccess.search(construct, TOP_LEVEL));
+      verify(construct, times(2)).getAnnotationMirrors();
+    }
+    finally {
+      scope.close();
+    }
+
+    // The index is only used while the cache is active.
+    assertEquals(mirror, AnnotationAccess.search(construct, TOP_LEVEL));
+    verify(construct, times(3)).getAnnotationMirrors();
+  }
+
+  @Test
+  void testMetaAnnotations() {
+    AnnotationMirror meta = mirror(TopLevelAnnotation.class.getCanonicalName());
+    AnnotationMirror annotation = mirror("org.example.Annotation");
+    AnnotationMirror other = mirror("org.example.Other");
+    AnnotatedConstruct annotationInterface = (AnnotatedConstruct) annotation.getAnnotationType().asElement();
+    doReturn(List.of(other, meta)).when(annotationInterface).getAnnotationMirrors();
+    AnnotatedConstruct construct = construct(annotation);
+
+    AnnotationCache.Scope scope = new AnnotationCache().activate();
+    try {
+      assertTrue(AnnotationAccess.hasMetaAnnotation(construct, TOP_LEVEL));
+      assertFalse(AnnotationAccess.hasMetaAnnotation(construct, NESTED));
+      assertEquals(List.of(meta), AnnotationAccess.findMetaAnnotations(construct, TOP_LEVEL));
+      verify(annotationInterface, times(1)).getAnnotationMirrors();
+    }
+    finally {
+      scope.close();
+    }
+  }
+
+  @Test
+  void testPlatformMetaAnnotations() {
+    AnnotationMirror retention = mirror(Retention.class.getCanonicalName());
+    AnnotationMirror annotation = mirror("org.example.Annotation");
+    AnnotatedConstruct annotationInterface = (AnnotatedConstruct) annotation.getAnnotationType().asElement();
+    AnnotatedConstruct retentionInterface = (AnnotatedConstruct) retention.getAnnotationType().asElement();
+    doReturn(List.of(retention)).when(annotationInterface).getAnnotationMirrors();
+    doReturn(List.of(mirror(Documented.class.getCanonicalName()))).when(retentionInterface).getAnnotationMirrors();
+    AnnotatedConstruct construct = construct(annotation);
+
+    // Otherwise, every annotation with a retention would be documented.
+    assertTrue(AnnotationAccess.hasMetaAnnotation(construct, new SimpleAnnotationType(Retention.class)));
+    assertFalse(AnnotationAccess.hasMetaAnnotation(construct, new SimpleAnnotationType(Documented.class)));
+    verify(retentionInterface, never()).getAnnotationMirrors();
+  }
+
+  @Test
+  void testInherited() {
+    AnnotationMirror inheritedTopLevel = inheritedMirror(TopLevelAnnotation.class.getCanonicalName());
+    AnnotationMirror inheritedNested = inheritedMirror(TopLevelAnnotation.NestedAnnotation.class.getCanonicalName());
+    AnnotationMirror overriding = inheritedMirror(TopLevelAnnotation.class.getCanonicalName());
+    TypeElement superclass = type(none(), inheritedTopLevel, inheritedNested);
+    TypeElement subclass = type(declared(superclass), overriding);
+
+    // The annotation of the subclass hides the one of the superclass.
+    assertSame(overriding, AnnotationAccess.searchInherited(subclass, TOP_LEVEL));
+    assertSame(inheritedNested, AnnotationAccess.searchInherited(subclass, NESTED));
+    assertSame(inheritedTopLevel, AnnotationAccess.searchInherited(superclass, TOP_LEVEL));
+  }
+
+  @Test
+  void testNotInherited() {
+    AnnotationMirror annotation = mirror(TopLevelAnnotation.class.getCanonicalName());
+    TypeElement superclass = type(none(), annotation);
+    TypeElement subclass = type(declared(superclass));
+
+    assertTrue(AnnotationAccess.hasInherited(superclass, TOP_LEVEL));
+    assertFalse(AnnotationAccess.hasInherited(subclass, TOP_LEVEL));
+  }
+
+  @Test
+  void testInheritedCache() {
+    AnnotationMirror annotation = inheritedMirror(TopLevelAnnotation.class.getCanonicalName());
+    TypeElement superclass = type(none(), annotation);
+    TypeElement subclass = type(declared(superclass));
+    AnnotationCache cache = new AnnotationCache();
+
+    AnnotationCache.Scope scope = cache.activate();
+    try {
+      assertTrue(AnnotationAccess.hasInherited(subclass, TOP_LEVEL));
+      assertTrue(AnnotationAccess.hasInherited(subclass, TOP_LEVEL));
+      assertTrue(AnnotationAccess.hasInherited(superclass, TOP_LEVEL));
+      verify(subclass, times(1)).getAnnotationMirrors();
+      verify(superclass, times(1)).getAnnotationMirrors();
+
+      cache.clear();
+      assertTrue(AnnotationAccess.hasInherited(subclass, TOP_LEVEL));
+      verify(subclass, times(2)).getAnnotationMirrors();
+      verify(superclass, times(2)).getAnnotationMirrors();
+    }
+    finally {
+      scope.close();
+    }
+
+    // Nothing is memoized while no cache is active.
+    assertTrue(AnnotationAccess.hasInherited(subclass, TOP_LEVEL));
+    assertTrue(AnnotationAccess.hasInherited(subclass, TOP_LEVEL));
+    verify(subclass, times(4)).getAnnotationMirrors();
+  }
+
+  @Test
+  void testUnresolvableSuperclass() {
+    AnnotationMirror annotation = inheritedMirror(TopLevelAnnotation.class.getCanonicalName());
+    TypeElement subclass = type(mirror(TypeKind.ERROR), annotation);
+
+    AnnotationCache.Scope scope = new AnnotationCache().activate();
+    try {
+      assertSame(annotation, AnnotationAccess.searchInherited(subclass, TOP_LEVEL));
+      assertFalse(AnnotationAccess.hasInherited(subclass, NESTED));
+      // The superclass may be generated in a later round.
+      verify(subclass, times(2)).getAnnotationMirrors();
+    }
+    finally {
+      scope.close();
+    }
+  }
+
+  private static @NotNull AnnotatedConstruct construct(@NotNull AnnotationMirror... mirrors) {
+    AnnotatedConstruct construct = mock(AnnotatedConstruct.class);
+    doReturn(List.of(mirrors)).when(construct).getAnnotationMirrors();
+    return construct;
+  }
+
+  /**
+   * Returns a mirror of an annotation whose interface is annotated with
+   * {@link java.lang.annotation.Inherited}.
+   */
+  private static @NotNull AnnotationMirror inheritedMirror(@NotNull String canonicalName) {
+    AnnotationMirror mirror = mirror(canonicalName);
+    AnnotatedConstruct annotationInterface = (AnnotatedConstruct) mirror.getAnnotationType().asElement();
+    doReturn(List.of(mirror(Inherited.class.getCanonicalName()))).when(annotationInterface).getAnnotationMirrors();
+    return mirror;
+  }
+
+  private static @NotNull TypeElement type(@NotNull TypeMirror superclass, @NotNull AnnotationMirror... mirrors) {
+    TypeElement type = TypeFixtures.type(ElementKind.CLASS, superclass);
+    doReturn(List.of(mirrors)).when(type).getAnnotationMirrors();
+    return type;
+  }
+}
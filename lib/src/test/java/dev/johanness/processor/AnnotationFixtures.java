@@ -0,0 +1,102 @@
+package dev.johanness.processor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.ElementVisitor;
+import javax.lang.model.element.ModuleElement;
+import javax.lang.model.element.Name;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import java.lang.annotation.Annotation;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Mocks of annotation mirrors and their annotation interfaces, shared by the
+ * tests.
+ */
+public final class AnnotationFixtures {
+  private AnnotationFixtures() {} // Cannot be instantiated
+
+  /**
+   * Returns a mirror of an annotation whose interface has the given name and
+   * is not within a module.
+   */
+  public static @NotNull AnnotationMirror mirror(@NotNull String canonicalName) {
+    return mirror(annotationType(canonicalName, null));
+  }
+
+  /**
+   * Returns a mirror of an annotation of the given type.
+   */
+  public static @NotNull AnnotationMirror mirror(@NotNull DeclaredType annotationType) {
+    AnnotationMirror mirror = mock(AnnotationMirror.class);
+    when(mirror.getAnnotationType()).thenReturn(annotationType);
+    return mirror;
+  }
+
+  /**
+   * Returns the type of an annotation interface with the given name. The
+   * annotation interface is in the module with the given name, or not within
+   * a module if the name is {@code null}.
+   */
+  public static @NotNull DeclaredType annotationType(@NotNull String canonicalName, @Nullable String moduleName) {
+    DeclaredType annotationType = mock(DeclaredType.class);
+    TypeElement typeElement = mock(TypeElement.class);
+    PackageElement packageElement = mock(PackageElement.class);
+    Name typeName = name(canonicalName);
+    when(annotationType.asElement()).thenReturn(typeElement);
+    when(typeElement.asType()).thenReturn(annotationType);
+    when(typeElement.getQualifiedName()).thenReturn(typeName);
+    when(typeElement.getEnclosingElement()).thenReturn(packageElement);
+    when(typeElement.accept(any(), any())).then(invocation -> {
+      ElementVisitor<Object, Object> visitor = invocation.getArgument(0);
+      return visitor.visitType(typeElement, invocation.getArgument(1));
+    });
+    when(packageElement.accept(any(), any())).then(invocation -> {
+      ElementVisitor<Object, Object> visitor = invocation.getArgument(0);
+      return visitor.visitPackage(packageElement, invocation.getArgument(1));
+    });
+    if (moduleName != null) {
+      ModuleElement moduleElement = mock(ModuleElement.class);
+      Name name = name(moduleName);
+      when(moduleElement.getQualifiedName()).thenReturn(name);
+      when(packageElement.getEnclosingElement()).thenReturn(moduleElement);
+      when(moduleElement.accept(any(), any())).then(invocation -> {
+        ElementVisitor<Object, Object> visitor = invocation.getArgument(0);
+        return visitor.visitModule(moduleElement, invocation.getArgument(1));
+      });
+    }
+    return annotationType;
+  }
+
+  public static @NotNull Name name(@NotNull String value) {
+    Name name = mock(Name.class);
+    when(name.toString()).thenReturn(value);
+    when(name.contentEquals(any())).then(invocation -> value.contentEquals((CharSequence) invocation.getArgument(0)));
+    return name;
+  }
+
+  /**
+   * Annotation type whose proxies are the annotation mirrors themselves.
+   */
+  public static final class SimpleAnnotationType extends AnnotationType<AnnotationMirror> {
+    public SimpleAnnotationType(@NotNull Class<? extends Annotation> clazz) {
+      super(clazz);
+    }
+
+    public SimpleAnnotationType(@NotNull String binaryName, @Nullable String moduleName) {
+      super(binaryName, moduleName);
+    }
+
+    @Override
+    protected @NotNull AnnotationMirror createProxy(@NotNull AnnotationMirror mirror) {
+      return mirror;
+    }
+  }
+}
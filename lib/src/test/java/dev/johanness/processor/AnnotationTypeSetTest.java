@@ -0,0 +1,55 @@
+package dev.johanness.processor;
+
+import dev.johanness.processor.AnnotationFixtures.SimpleAnnotationType;
+import dev.johanness.processor._types.TopLevelAnnotation;
+import org.junit.jupiter.api.Test;
+
+import javax.lang.model.AnnotatedConstruct;
+import javax.lang.model.element.AnnotationMirror;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static dev.johanness.processor.AnnotationFixtures.mirror;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+final class AnnotationTypeSetTest {
+  private static final AnnotationType<AnnotationMirror> TOP_LEVEL = new SimpleAnnotationType(TopLevelAnnotation.class.getName(), null);
+  private static final AnnotationType<AnnotationMirror> NESTED = new SimpleAnnotationType(TopLevelAnnotation.NestedAnnotation.class.getName(), null);
+  private static final AnnotationType<AnnotationMirror> IN_MODULE = new SimpleAnnotationType("org.example.Annotation", "org.example.module");
+
+  @Test
+  void testNames() {
+    AnnotationTypeSet set = AnnotationTypeSet.of(TOP_LEVEL, IN_MODULE, TOP_LEVEL);
+    assertEquals(2, set.size());
+    assertTrue(set.contains(TOP_LEVEL));
+    assertFalse(set.contains(NESTED));
+    assertEquals(Set.of(TOP_LEVEL.canonicalName(), "org.example.Annotation"), set.canonicalNames());
+    assertEquals(Set.of(TOP_LEVEL.canonicalName(), "org.example.module/org.example.Annotation"), set.namesWithModule());
+  }
+
+  @Test
+  void testMatches() {
+    AnnotationMirror topLevel = mirror(TopLevelAnnotation.class.getCanonicalName());
+    AnnotationMirror other = mirror("org.example.Other");
+    AnnotatedConstruct construct = mock(AnnotatedConstruct.class);
+    doReturn(List.of(other, topLevel)).when(construct).getAnnotationMirrors();
+
+    AnnotationTypeSet set = AnnotationTypeSet.of(NESTED, TOP_LEVEL);
+    assertTrue(set.matchesAny(construct));
+    assertFalse(AnnotationTypeSet.of(NESTED).matchesAny(construct));
+    assertSame(TOP_LEVEL, set.get(topLevel.getAnnotationType()));
+    assertNull(set.get(other.getAnnotationType()));
+    assertEquals(List.of(TOP_LEVEL), set.findTypes(construct));
+
+    List<AnnotationMirror> mirrors = new ArrayList<>();
+    set.forEachMatch(construct, (type, mirror) -> mirrors.add(mirror));
+    assertEquals(List.of(topLevel), mirrors);
+  }
+}
@@ -8,17 +8,26 @@
 import org.junit.jupiter.params.provider.NullSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.ElementVisitor;
+import javax.lang.model.element.ModuleElement;
 import javax.lang.model.element.Name;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.DeclaredType;
+import javax.lang.model.util.Elements;
 import java.lang.annotation.*;
 
+import static dev.johanness.processor.AnnotationFixtures.annotationType;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 final class AnnotationTypeTest {
@@ -60,7 +69,74 @@ void testNameWithModule(@Nullable String moduleName) {
 
   @Test
   void testMatches() {
-    // TODO: Test this method. Don't forget cases where one of both modules is null
+    String name = TopLevelAnnotation.NestedAnnotation.class.getCanonicalName();
+    String binaryName = TopLevelAnnotation.NestedAnnotation.class.getName();
+    DeclaredType inModule = annotationType(name, "org.example.module");
+    DeclaredType inOtherModule = annotationType(name, "org.example.other");
+    DeclaredType inUnnamedModule = annotationType(name, "");
+    DeclaredType withoutModule = annotationType(name, null);
+    DeclaredType otherName = annotationType("org.example.Other", "org.example.module");
+
+    // Unbound types match by name and module.
+    assertTrue(new SimpleAnnotationType(binaryName, "org.example.module").matches(inModule));
+    assertFalse(new SimpleAnnotationType(binaryName, "org.example.module").matches(inOtherModule));
+    assertFalse(new SimpleAnnotationType(binaryName, "org.example.module").matches(inUnnamedModule));
+    assertFalse(new SimpleAnnotationType(binaryName, "org.example.module").matches(otherName));
+    // A type without module name only matches the unnamed module.
+    assertTrue(new SimpleAnnotationType(binaryName, null).matches(inUnnamedModule));
+    assertFalse(new SimpleAnnotationType(binaryName, null).matches(inModule));
+    // Elements outside of any module match every module name.
+    assertTrue(new SimpleAnnotationType(binaryName, "org.example.module").matches(withoutModule));
+    assertTrue(new SimpleAnnotationType(binaryName, null).matches(withoutModule));
+  }
+
+  @Test
+  void testMatchesBound() {
+    String name = TopLevelAnnotation.NestedAnnotation.class.getCanonicalName();
+    DeclaredType bound = annotationType(name, "org.example.module");
+    DeclaredType other = annotationType(name, "org.example.other");
+    TypeElement boundElement = (TypeElement) bound.asElement();
+    ProcessingEnvironment processingEnv = mock(ProcessingEnvironment.class);
+    Elements elements = mock(Elements.class);
+    ModuleElement module = mock(ModuleElement.class);
+    when(processingEnv.getElementUtils()).thenReturn(elements);
+    when(elements.getModuleElement("org.example.module")).thenReturn(module);
+    when(elements.getTypeElement(module, name)).thenReturn(boundElement);
+    // The other element may belong to another compilation, which the
+    // environment does not know.
+    when(elements.getModuleOf(any())).thenReturn(module);
+
+    AnnotationType<Proxy> type = new SimpleAnnotationType(TopLevelAnnotation.NestedAnnotation.class.getName(), "org.example.module");
+    assertSame(boundElement, type.bind(processingEnv));
+    // The bound element matches by identity, other elements are checked
+    // via their enclosing module.
+    assertTrue(type.matches(bound));
+    verify(boundElement, never()).getQualifiedName();
+    assertFalse(type.matches(other));
+    verify(elements, never()).getModuleOf(any());
+  }
+
+  @Test
+  void testBind() {
+    ProcessingEnvironment processingEnv = mock(ProcessingEnvironment.class);
+    Elements elements = mock(Elements.class);
+    DeclaredType annotationType = mock(DeclaredType.class);
+    TypeElement typeElement = mock(TypeElement.class);
+
+    when(processingEnv.getElementUtils()).thenReturn(elements);
+    when(elements.getTypeElement(TopLevelAnnotation.class.getCanonicalName())).thenReturn(typeElement);
+    when(annotationType.asElement()).thenReturn(typeElement);
+    when(typeElement.accept(any(), any())).then(invocation -> {
+      ElementVisitor<Object, Object> visitor = invocation.getArgument(0);
+      return visitor.visitType(typeElement, invocation.getArgument(1));
+    });
+
+    AnnotationType<Proxy> type = new SimpleAnnotationType(TopLevelAnnotation.class);
+    assertSame(typeElement, type.bind(processingEnv));
+    assertSame(typeElement, type.bind(processingEnv));
+    assertTrue(type.matches(annotationType));
+    verify(elements, times(1)).getTypeElement(TopLevelAnnotation.class.getCanonicalName());
+    verify(typeElement, never()).getQualifiedName();
   }
 
   @Test
@@ -0,0 +1,70 @@
+package dev.johanness.processor;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ElementVisitor;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Mocks of classes, interfaces and their types, shared by the tests.
+ */
+public final class TypeFixtures {
+  private TypeFixtures() {} // Cannot be instantiated
+
+  /**
+   * Returns a class or interface with the given supertypes, which does not
+   * enclose any elements.
+   */
+  public static @NotNull TypeElement type(@NotNull ElementKind kind, @NotNull TypeMirror superclass, @NotNull TypeMirror... interfaces) {
+    TypeElement type = mock(TypeElement.class);
+    when(type.getKind()).thenReturn(kind);
+    doReturn(superclass).when(type).getSuperclass();
+    doReturn(List.of(interfaces)).when(type).getInterfaces();
+    doReturn(List.<Element>of()).when(type).getEnclosedElements();
+    when(type.accept(any(), any())).then(invocation -> {
+      ElementVisitor<Object, Object> visitor = invocation.getArgument(0);
+      return visitor.visitType(type, invocation.getArgument(1));
+    });
+    return type;
+  }
+
+  /**
+   * Returns a type of the given kind, e.g. {@link TypeKind#NONE} for the
+   * superclass of {@link Object}.
+   */
+  public static @NotNull TypeMirror mirror(@NotNull TypeKind kind) {
+    TypeMirror mirror = mock(TypeMirror.class);
+    when(mirror.getKind()).thenReturn(kind);
+    doReturn(List.of()).when(mirror).getAnnotationMirrors();
+    return mirror;
+  }
+
+  public static @NotNull TypeMirror none() {
+    return mirror(TypeKind.NONE);
+  }
+
+  /**
+   * Returns a new instance of the type of the given class or interface. The
+   * type is not enclosed by another type.
+   */
+  public static @NotNull DeclaredType declared(@NotNull TypeElement element, @NotNull TypeMirror... arguments) {
+    DeclaredType type = mock(DeclaredType.class);
+    when(type.getKind()).thenReturn(TypeKind.DECLARED);
+    doReturn(List.of()).when(type).getAnnotationMirrors();
+    doReturn(element).when(type).asElement();
+    doReturn(List.of(arguments)).when(type).getTypeArguments();
+    doReturn(none()).when(type).getEnclosingType();
+    return type;
+  }
+}
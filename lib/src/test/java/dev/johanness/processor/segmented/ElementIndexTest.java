@@ -0,0 +1,163 @@
+package dev.johanness.processor.segmented;
+
+import dev.johanness.processor.AnnotationFixtures.SimpleAnnotationType;
+import dev.johanness.processor.AnnotationType;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.ModuleElement;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.util.Elements;
+import java.util.ArrayList;
+import java.util.List;
+
+import static dev.johanness.processor.AnnotationFixtures.annotationType;
+import static dev.johanness.processor.AnnotationFixtures.mirror;
+import static dev.johanness.processor.ElementCast.toTypeElement;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+final class ElementIndexTest {
+  private static final AnnotationType<AnnotationMirror> MARKER = new SimpleAnnotationType("org.example.Marker", null);
+
+  @Test
+  void testInheritedClassAnnotations() {
+    Elements elements = mock(Elements.class);
+    AnnotationMirror marker = mirror("org.example.Marker");
+    TypeElement base = element(TypeElement.class, ElementKind.CLASS);
+    TypeElement derived = element(TypeElement.class, ElementKind.CLASS);
+    doReturn(List.of(marker)).when(elements).getAllAnnotationMirrors(base);
+    // Not present on the class itself, but inherited from the base class.
+    doReturn(List.of(marker)).when(elements).getAllAnnotationMirrors(derived);
+
+    ElementIndex index = ElementIndex.build(elements, List.of(base, derived));
+    assertEquals(List.of(base, derived), index.getElementsAnnotatedWith(MARKER));
+    assertEquals(List.of(base, derived), index.getElementsAnnotatedWith(toTypeElement(marker.getAnnotationType().asElement())));
+  }
+
+  @Test
+  void testParametersAndTypeParameters() {
+    Elements elements = mock(Elements.class);
+    PackageElement packageElement = mock(PackageElement.class);
+    AnnotationMirror marker = mirror("org.example.Marker");
+    TypeParameterElement typeParameter = element(TypeParameterElement.class, ElementKind.TYPE_PARAMETER);
+    TypeParameterElement methodTypeParameter = element(TypeParameterElement.class, ElementKind.TYPE_PARAMETER);
+    VariableElement parameter = element(VariableElement.class, ElementKind.PARAMETER);
+    ExecutableElement method = element(ExecutableElement.class, ElementKind.METHOD);
+    doReturn(List.of(methodTypeParameter)).when(method).getTypeParameters();
+    doReturn(List.of(parameter)).when(method).getParameters();
+    TypeElement type = element(TypeElement.class, ElementKind.CLASS, method);
+    doReturn(List.of(typeParameter)).when(type).getTypeParameters();
+    doReturn(packageElement).when(elements).getPackageOf(type);
+    doReturn(List.of(marker)).when(elements).getAllAnnotationMirrors(typeParameter);
+    doReturn(List.of(marker)).when(elements).getAllAnnotationMirrors(methodTypeParameter);
+    doReturn(List.of(marker)).when(elements).getAllAnnotationMirrors(parameter);
+
+    // Neither is part of the enclosed elements.
+    ElementIndex index = ElementIndex.build(elements, List.of(type));
+    assertEquals(List.of(typeParameter, methodTypeParameter, parameter), index.getElementsAnnotatedWith(MARKER));
+    assertEquals(List.of(typeParameter, methodTypeParameter), index.getElements(packageElement, ElementKind.TYPE_PARAMETER));
+    assertEquals(List.of(parameter), index.getElements(packageElement, ElementKind.PARAMETER));
+  }
+
+  @Test
+  void testDoesNotDescendIntoPackages() {
+    Elements elements = mock(Elements.class);
+    AnnotationMirror marker = mirror("org.example.Marker");
+    TypeElement type = element(TypeElement.class, ElementKind.CLASS);
+    PackageElement packageElement = element(PackageElement.class, ElementKind.PACKAGE, type);
+    doReturn(List.of(marker)).when(elements).getAllAnnotationMirrors(packageElement);
+    doReturn(List.of(marker)).when(elements).getAllAnnotationMirrors(type);
+
+    // The type is not a root element of the round.
+    ElementIndex index = ElementIndex.build(elements, List.of(packageElement));
+    assertEquals(List.of(packageElement), index.getElementsAnnotatedWith(MARKER));
+  }
+
+  @Test
+  void testElementsByPackageAndModule() {
+    Elements elements = mock(Elements.class);
+    ModuleElement module = mock(ModuleElement.class);
+    PackageElement first = mock(PackageElement.class);
+    PackageElement second = mock(PackageElement.class);
+    VariableElement field = element(VariableElement.class, ElementKind.FIELD);
+    TypeElement a = element(TypeElement.class, ElementKind.CLASS, field);
+    TypeElement b = element(TypeElement.class, ElementKind.INTERFACE);
+    TypeElement c = element(TypeElement.class, ElementKind.CLASS);
+    doReturn(first).when(elements).getPackageOf(a);
+    doReturn(first).when(elements).getPackageOf(b);
+    doReturn(second).when(elements).getPackageOf(c);
+    doReturn(module).when(elements).getModuleOf(a);
+    doReturn(module).when(elements).getModuleOf(c);
+
+    ElementIndex index = ElementIndex.build(elements, List.of(a, b, c));
+    assertEquals(List.of(a), index.getElements(first, ElementKind.CLASS));
+    assertEquals(List.of(b), index.getElements(first, ElementKind.INTERFACE));
+    assertEquals(List.of(field), index.getElements(first, ElementKind.FIELD));
+    assertEquals(List.of(c), index.getElements(second, ElementKind.CLASS));
+    assertEquals(List.of(), index.getElements(second, ElementKind.FIELD));
+    assertEquals(List.of(), index.getElements(mock(PackageElement.class), ElementKind.CLASS));
+    assertEquals(List.of(a, c), index.getRootElements(module));
+    assertEquals(List.of(), index.getRootElements(mock(ModuleElement.class)));
+  }
+
+  @Test
+  void testSameNameInTwoModules() {
+    Elements elements = mock(Elements.class);
+    DeclaredType firstType = annotationType("org.example.Marker", "first");
+    DeclaredType secondType = annotationType("org.example.Marker", "second");
+    TypeElement a = element(TypeElement.class, ElementKind.CLASS);
+    TypeElement b = element(TypeElement.class, ElementKind.CLASS);
+    doReturn(List.of(mirror(firstType))).when(elements).getAllAnnotationMirrors(a);
+    doReturn(List.of(mirror(secondType))).when(elements).getAllAnnotationMirrors(b);
+
+    ElementIndex index = ElementIndex.build(elements, List.of(a, b));
+    assertEquals(List.of(a), index.getElementsAnnotatedWith(new SimpleAnnotationType("org.example.Marker", "first")));
+    assertEquals(List.of(b), index.getElementsAnnotatedWith(new SimpleAnnotationType("org.example.Marker", "second")));
+    assertEquals(List.of(), index.getElementsAnnotatedWith(new SimpleAnnotationType("org.example.Marker", "third")));
+    assertEquals(List.of(a), index.getElementsAnnotatedWith(toTypeElement(firstType.asElement())));
+  }
+
+  @Test
+  void testIndexIsBuiltForEachRound() {
+    Elements elements = mock(Elements.class);
+    ModuleElement module = mock(ModuleElement.class);
+    when(elements.getModuleOf(any())).thenReturn(module);
+    ProcessingEnvironment processingEnv = mock(ProcessingEnvironment.class);
+    when(processingEnv.getElementUtils()).thenReturn(elements);
+    Element first = FakeElements.type("First", 0, 0, 0);
+    Element second = FakeElements.type("Second", 0, 0, 0);
+
+    List<List<Element>> roots = new ArrayList<>();
+    SegmentedExecutor executor = new SegmentedExecutor(processingEnv);
+    executor.addVisitor(new Visitor() {
+      @Override
+      public @NotNull Boolean visitType(@NotNull TypeElement element, @NotNull Preliminary preliminary) {
+        roots.add(preliminary.elementIndex().getRootElements(module));
+        return true;
+      }
+    }, ElementKind.CLASS);
+    executor.process(FakeElements.round(List.of(first), false));
+    executor.process(FakeElements.round(List.of(second), true));
+    assertEquals(List.of(List.of(first), List.of(second)), roots);
+  }
+
+  private static <E extends Element> @NotNull E element(@NotNull Class<E> type, @NotNull ElementKind kind, @NotNull Element... enclosed) {
+    E element = mock(type);
+    when(element.getKind()).thenReturn(kind);
+    doReturn(List.of(enclosed)).when(element).getEnclosedElements();
+    return element;
+  }
+}
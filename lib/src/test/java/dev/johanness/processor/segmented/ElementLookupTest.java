@@ -0,0 +1,101 @@
+package dev.johanness.processor.segmented;
+
+import dev.johanness.processor.AnnotationFixtures.SimpleAnnotationType;
+import dev.johanness.processor.AnnotationType;
+import org.junit.jupiter.api.Test;
+
+import javax.lang.model.element.ModuleElement;
+import javax.lang.model.element.Name;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+final class ElementLookupTest {
+  @Test
+  void testFoundElementsAreKept() {
+    Elements elements = mock(Elements.class);
+    TypeElement type = mock(TypeElement.class);
+    doReturn(type).when(elements).getTypeElement("org.example.Type");
+    ElementLookup lookup = new ElementLookup(elements);
+
+    assertSame(type, lookup.getTypeElement("org.example.Type"));
+    lookup.newRound();
+    assertSame(type, lookup.getTypeElement("org.example.Type"));
+    verify(elements, times(1)).getTypeElement(any());
+    assertEquals(1, lookup.getHits());
+    assertEquals(1, lookup.getMisses());
+  }
+
+  @Test
+  void testMissingElementsUntilNextRound() {
+    Elements elements = mock(Elements.class);
+    ElementLookup lookup = new ElementLookup(elements);
+
+    assertNull(lookup.getTypeElement("org.example.Generated"));
+    assertNull(lookup.getPackageElement("org.example"));
+    assertNull(lookup.getTypeElement("org.example.Generated"));
+    assertNull(lookup.getPackageElement("org.example"));
+    verify(elements, times(1)).getTypeElement(any());
+    verify(elements, times(1)).getPackageElement(any());
+
+    // The type may be generated in the previous round.
+    TypeElement type = mock(TypeElement.class);
+    doReturn(type).when(elements).getTypeElement("org.example.Generated");
+    lookup.newRound();
+    assertSame(type, lookup.getTypeElement("org.example.Generated"));
+    assertNull(lookup.getPackageElement("org.example"));
+    verify(elements, times(2)).getTypeElement(any());
+    verify(elements, times(2)).getPackageElement(any());
+  }
+
+  @Test
+  void testTypeWithModule() {
+    Elements elements = mock(Elements.class);
+    ModuleElement module = mock(ModuleElement.class);
+    Name moduleName = mock(Name.class);
+    when(moduleName.toString()).thenReturn("org.example.module");
+    doReturn(moduleName).when(module).getQualifiedName();
+    TypeElement type = mock(TypeElement.class);
+    doReturn(module).when(elements).getModuleElement("org.example.module");
+    doReturn(type).when(elements).getTypeElement(module, "org.example.Type");
+    ElementLookup lookup = new ElementLookup(elements);
+
+    assertSame(type, lookup.getTypeElementWithModule("org.example.module/org.example.Type"));
+    assertNull(lookup.getTypeElementWithModule("org.example.other/org.example.Type"));
+    assertSame(type, lookup.getTypeElementWithModule("org.example.module/org.example.Type"));
+    verify(elements, times(1)).getTypeElement(any(), any());
+  }
+
+  @Test
+  void testAnnotationInterface() {
+    Elements elements = mock(Elements.class);
+    ModuleElement module = mock(ModuleElement.class);
+    Name moduleName = mock(Name.class);
+    when(moduleName.toString()).thenReturn("org.example.module");
+    doReturn(moduleName).when(module).getQualifiedName();
+    doReturn(module).when(elements).getModuleElement("org.example.module");
+    ElementLookup lookup = new ElementLookup(elements);
+    AnnotationType<?> type = new SimpleAnnotationType("org.example.Generated", "org.example.module");
+
+    // Unlike AnnotationType.bind(...), the missing type is not resolved again
+    // before the next round.
+    assertNull(lookup.getAnnotationInterface(type));
+    assertNull(lookup.getAnnotationInterface(type));
+    verify(elements, times(1)).getTypeElement(any(), any());
+
+    TypeElement generated = mock(TypeElement.class);
+    doReturn(generated).when(elements).getTypeElement(module, "org.example.Generated");
+    lookup.newRound();
+    assertSame(generated, lookup.getAnnotationInterface(type));
+    verify(elements, times(2)).getTypeElement(any(), any());
+  }
+}
@@ -0,0 +1,147 @@
+package dev.johanness.processor.segmented;
+
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ElementVisitor;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.util.Elements;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Minimal implementations of the {@code javax.annotation.processing} and
+ * {@code javax.lang.model} interfaces, just enough to drive a
+ * {@link SegmentedExecutor} without a compiler.
+ */
+final class FakeElements {
+  private FakeElements() {} // Cannot be instantiated
+
+  static List<Element> classes(int count, int fields, int methods, int nestedClasses) {
+    List<Element> result = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      result.add(type("C" + i, fields, methods, nestedClasses));
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  static Element type(String name, int fields, int methods, int nestedClasses) {
+    List<Element> members = new ArrayList<>();
+    for (int i = 0; i < fields; i++) {
+      members.add(element(VariableElement.class, ElementKind.FIELD, name + ".f" + i, List.of()));
+    }
+    for (int i = 0; i < methods; i++) {
+      members.add(element(ExecutableElement.class, ElementKind.METHOD, name + ".m" + i, List.of()));
+    }
+    for (int i = 0; i < nestedClasses; i++) {
+      members.add(type(name + "$N" + i, fields, methods, 0));
+    }
+    return element(TypeElement.class, ElementKind.CLASS, name, Collections.unmodifiableList(members));
+  }
+
+  static ProcessingEnvironment processingEnv() {
+    // All methods of the messager return void.
+    Messager messager = (Messager) Proxy.newProxyInstance(
+        FakeElements.class.getClassLoader(),
+        new Class<?>[]{Messager.class},
+        (proxy, method, args) -> null);
+    // No types, packages or modules besides the given elements.
+    Elements elements = (Elements) Proxy.newProxyInstance(
+        FakeElements.class.getClassLoader(),
+        new Class<?>[]{Elements.class},
+        (proxy, method, args) -> defaultValue(method.getReturnType()));
+    return (ProcessingEnvironment) Proxy.newProxyInstance(
+        FakeElements.class.getClassLoader(),
+        new Class<?>[]{ProcessingEnvironment.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getOptions":
+              return Map.of();
+            case "getMessager":
+              return messager;
+            case "getElementUtils":
+              return elements;
+            default:
+              return defaultValue(method.getReturnType());
+          }
+        });
+  }
+
+  static RoundEnvironment round(List<Element> rootElements, boolean processingOver) {
+    // Keeps the order of the elements, like the compiler.
+    Set<Element> roots = Collections.unmodifiableSet(new LinkedHashSet<>(rootElements));
+    return (RoundEnvironment) Proxy.newProxyInstance(
+        FakeElements.class.getClassLoader(),
+        new Class<?>[]{RoundEnvironment.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getRootElements":
+              return roots;
+            case "processingOver":
+              return processingOver;
+            case "errorRaised":
+              return false;
+            default:
+              return Set.of();
+          }
+        });
+  }
+
+  private static <E extends Element> E element(Class<E> type, ElementKind kind, String name, List<Element> enclosed) {
+    return type.cast(Proxy.newProxyInstance(
+        FakeElements.class.getClassLoader(),
+        new Class<?>[]{type},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getKind":
+              return kind;
+            case "getEnclosedElements":
+              return enclosed;
+            case "getAnnotationMirrors":
+              return List.of();
+            case "accept":
+              return accept(kind, (Element) proxy, (ElementVisitor<?, ?>) args[0], args[1]);
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "equals":
+              return proxy == args[0];
+            case "toString":
+              return name;
+            default:
+              return defaultValue(method.getReturnType());
+          }
+        }));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object accept(ElementKind kind, Element element, ElementVisitor<?, ?> visitor, Object parameter) {
+    ElementVisitor<Object, Object> v = (ElementVisitor<Object, Object>) visitor;
+    switch (kind) {
+      case CLASS:
+        return v.visitType((TypeElement) element, parameter);
+      case FIELD:
+        return v.visitVariable((VariableElement) element, parameter);
+      case METHOD:
+        return v.visitExecutable((ExecutableElement) element, parameter);
+      default:
+        return v.visitUnknown(element, parameter);
+    }
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) return false;
+    if (type == int.class) return 0;
+    if (type == long.class) return 0L;
+    if (type == List.class) return List.of();
+    return null;
+  }
+}
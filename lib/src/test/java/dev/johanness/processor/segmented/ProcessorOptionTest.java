@@ -0,0 +1,70 @@
+package dev.johanness.processor.segmented;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.annotation.RetentionPolicy;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class ProcessorOptionTest {
+  @Test
+  void testFlag() {
+    ProcessorOption<Boolean> option = ProcessorOption.flag("flag");
+    assertFalse(option.read(Map.of()));
+    assertTrue(option.read(options("flag", null)));
+    assertTrue(option.read(options("flag", "TRUE")));
+    assertFalse(option.read(options("flag", "false")));
+    assertThrows(IllegalArgumentException.class, () -> option.read(options("flag", "yes")));
+  }
+
+  @Test
+  void testInteger() {
+    ProcessorOption<Integer> option = ProcessorOption.integer("int", 42);
+    assertEquals(42, option.read(Map.of()));
+    assertEquals(7, option.read(options("int", "7")));
+    assertThrows(IllegalArgumentException.class, () -> option.read(options("int", null)));
+    assertThrows(IllegalArgumentException.class, () -> option.read(options("int", "seven")));
+  }
+
+  @Test
+  void testString() {
+    ProcessorOption<String> option = ProcessorOption.string("string", null);
+    assertNull(option.read(Map.of()));
+    assertEquals("value", option.read(options("string", "value")));
+    assertThrows(IllegalArgumentException.class, () -> option.read(options("string", "")));
+  }
+
+  @Test
+  void testEnum() {
+    ProcessorOption<RetentionPolicy> option = ProcessorOption.enumeration("enum", RetentionPolicy.class, RetentionPolicy.CLASS);
+    assertEquals(RetentionPolicy.CLASS, option.read(Map.of()));
+    assertEquals(RetentionPolicy.SOURCE, option.read(options("enum", "source")));
+    assertThrows(IllegalArgumentException.class, () -> option.read(options("enum", "unknown")));
+  }
+
+  @Test
+  void testPath() {
+    ProcessorOption<Path> option = ProcessorOption.path("path");
+    assertNull(option.read(Map.of()));
+    assertEquals(Paths.get("build", "metrics.json"), option.read(options("path", "build/metrics.json")));
+    assertThrows(IllegalArgumentException.class, () -> option.read(options("path", "")));
+    // Reported by ProcessorConfig.getOption(...) instead of failing the
+    // initialization of the processor.
+    assertThrows(IllegalArgumentException.class, () -> option.read(options("path", "metrics\0.json")));
+  }
+
+  private static Map<String, String> options(String name, String value) {
+    // Map.of(...) does not support null values.
+    Map<String, String> options = new HashMap<>();
+    options.put(name, value);
+    return options;
+  }
+}
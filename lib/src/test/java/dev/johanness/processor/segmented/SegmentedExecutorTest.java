@@ -0,0 +1,419 @@
+package dev.johanness.processor.segmented;
+
+import dev.johanness.processor.segmented._internal.Task;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.VariableElement;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class SegmentedExecutorTest {
+  private static final Key<Integer> COUNT = new Key<>("count");
+  private static final Key<String> READY = new Key<>("ready");
+
+  @Test
+  void testParallelMatchesSequential() {
+    List<Element> roots = FakeElements.classes(20, 3, 3, 1);
+    List<String> sequential = run(roots, 1);
+    List<String> parallel = run(roots, 4);
+    assertEquals(sequential, parallel);
+    // Every action saw the global value set by the previous action.
+    for (int i = 0; i < sequential.size(); i++) {
+      assertEquals(i, Integer.parseInt(sequential.get(i).substring(sequential.get(i).indexOf('=') + 1)));
+    }
+  }
+
+  @Test
+  void testInlinedElementsSeeGlobalsOfEarlierSiblings() {
+    // Only the fields register actions, so the classes and the first field
+    // of each class are visited within the task of the enclosing element.
+    List<Element> roots = FakeElements.classes(2, 3, 2, 2);
+    for (int parallelism : new int[] {1, 4}) {
+      List<String> log = runFields(roots, parallelism, name -> true);
+      assertEquals(18, log.size());
+      for (int i = 0; i < log.size(); i++) {
+        // Each action sees the value set by the previous action.
+        assertTrue(log.get(i).endsWith("=" + i), log.toString());
+      }
+    }
+  }
+
+  @Test
+  void testNestedInlinedActionsStopInlining() {
+    // The first nested class is visited within the task of the outer class,
+    // including its fields. The second nested class must still see the
+    // value set by the actions of these fields.
+    List<Element> roots = FakeElements.classes(1, 1, 0, 2);
+    List<String> log = runFields(roots, 1, name -> name.contains("$"));
+    assertEquals(List.of("C0$N0.f0=0", "C0$N1.f0=1"), log);
+  }
+
+  @Test
+  void testAnnouncedTypeWakesBlockedTask() {
+    for (int parallelism : new int[] {1, 4}) {
+      List<String> log = new ArrayList<>();
+      runTypes(log, SchedulingStrategy.FIFO, parallelism, (element, preliminary) -> {
+        if (element.toString().equals("C0")) {
+          // The name may be prefixed with the module.
+          ProvisionalType type = preliminary.getProvisionalType("m/gen.Foo");
+          if (type == null) {
+            preliminary.blockOn("m/gen.Foo");
+            return false;
+          }
+          preliminary.action(type, (item, definitely) -> log.add("C0 sees " + item.qualifiedName()));
+        }
+        else {
+          preliminary.action(element, (item, definitely) -> {
+            definitely.announceType(ProvisionalType.of("gen.Foo", ElementKind.CLASS, Map.of()));
+            log.add("C1 announces");
+          });
+        }
+        return true;
+      });
+      assertEquals(List.of("C1 announces", "C0 sees gen.Foo", "next round"), log);
+    }
+  }
+
+  @Test
+  void testTasksSeeTypesAnnouncedByEarlierTasks() {
+    for (int parallelism : new int[] {1, 4}) {
+      List<String> log = new ArrayList<>();
+      runTypes(log, SchedulingStrategy.FIFO, parallelism, (element, preliminary) -> {
+        if (element.toString().equals("C0")) {
+          preliminary.action(element, (item, definitely) -> {
+            definitely.announceType(ProvisionalType.of("gen.Foo", ElementKind.CLASS, Map.of()));
+            log.add("C0 announces");
+          });
+        }
+        else {
+          // With parallel tasks, both elements are run before the action of
+          // the first element is applied.
+          ProvisionalType type = preliminary.getProvisionalType("gen.Foo");
+          preliminary.action(element, (item, definitely) -> log.add("C1 sees " + type));
+        }
+        return true;
+      });
+      assertEquals(List.of("C0 announces", "C1 sees ProvisionalType{'gen.Foo'}", "next round"), log);
+    }
+  }
+
+  @Test
+  void testBlockedTaskSeesTypeAnnouncedByEarlierTask() {
+    for (int parallelism : new int[] {1, 4}) {
+      List<String> log = new ArrayList<>();
+      runTypes(log, SchedulingStrategy.FIFO, parallelism, (element, preliminary) -> {
+        if (element.toString().equals("C0")) {
+          preliminary.action(element, (item, definitely) -> {
+            definitely.announceType(ProvisionalType.of("gen.Foo", ElementKind.CLASS, Map.of()));
+            log.add("C0 announces");
+          });
+        }
+        else if (preliminary.getProvisionalType("gen.Foo") == null) {
+          preliminary.blockOn("gen.Foo");
+          return false;
+        }
+        else {
+          preliminary.action(element, (item, definitely) -> log.add("C1 sees gen.Foo"));
+        }
+        return true;
+      });
+      assertEquals(List.of("C0 announces", "C1 sees gen.Foo", "next round"), log);
+    }
+  }
+
+  @Test
+  void testGlobalWakesBlockedTaskInSameRound() {
+    for (SchedulingStrategy strategy : List.of(SchedulingStrategy.FIFO, SchedulingStrategy.DEPTH_FIRST)) {
+      for (int parallelism : new int[] {1, 4}) {
+        List<String> log = new ArrayList<>();
+        runTypes(log, strategy, parallelism, (element, preliminary) -> {
+          if (element.toString().equals("C0")) {
+            String value = preliminary.getOrNull(READY);
+            if (value == null) {
+              preliminary.blockOn(READY);
+              return false;
+            }
+            preliminary.action(element, (item, definitely) -> log.add("C0 sees " + value));
+          }
+          else {
+            preliminary.action(element, (item, definitely) -> {
+              definitely.setGlobal(READY, "ready");
+              log.add("C1 sets");
+            });
+          }
+          return true;
+        });
+        assertEquals(List.of("C1 sets", "C0 sees ready", "next round"), log, strategy + ", " + parallelism);
+      }
+    }
+  }
+
+  @Test
+  void testRenderWriterWakesBlockedDescendant() {
+    for (int parallelism : new int[] {1, 4}) {
+      List<String> log = new ArrayList<>();
+      SegmentedExecutor executor = new SegmentedExecutor(FakeElements.processingEnv());
+      executor.setParallelism(parallelism);
+      executor.addVisitor(new FunctionVisitor((element, preliminary) -> {
+        if (element.getKind() == ElementKind.CLASS) {
+          // The writer runs once no other task is left in the round.
+          preliminary.action(element, (item, definitely) ->
+              definitely.render(() -> "rendered", (value, writer) -> writer.set(READY, value)));
+          return true;
+        }
+        String value = preliminary.getOrNull(READY);
+        if (value == null) {
+          preliminary.blockOn(READY);
+          return false;
+        }
+        preliminary.action(element, (item, definitely) -> log.add(item + " sees " + value));
+        return true;
+      }), true);
+      executor.process(FakeElements.round(FakeElements.classes(1, 2, 0, 0), false));
+      log.add("next round");
+      executor.process(FakeElements.round(List.of(), true));
+      assertEquals(List.of("C0.f0 sees rendered", "C0.f1 sees rendered", "next round"), log);
+    }
+  }
+
+  @Test
+  void testBlockedTaskIsQueuedIfKeyWasSetInTheMeantime() {
+    // The tasks of a wave are evaluated again if they missed a global value,
+    // so the task is handled directly to reach the case in which the key was
+    // set after the task was run.
+    List<String> log = new ArrayList<>();
+    SegmentedExecutor executor = new SegmentedExecutor(FakeElements.processingEnv());
+    executor.addVisitor(new FunctionVisitor((element, preliminary) -> {
+      preliminary.action(element, (item, definitely) -> {
+        Task<String> task = new Task<>((name, blocking) -> {
+          String value = blocking.getOrNull(READY);
+          if (value == null) {
+            blocking.blockOn(READY);
+            return false;
+          }
+          blocking.action(name, (n, d) -> log.add(n + " sees " + value));
+          return true;
+        }, "task");
+        Preliminary blocked = new Preliminary(executor, task);
+        blocked.run();
+        definitely.setGlobal(READY, "ready");
+        executor.handle(task, blocked, FakeElements.round(List.of(), false), new ArrayDeque<>());
+      });
+      return true;
+    }), ElementKind.CLASS);
+    executor.process(FakeElements.round(FakeElements.classes(1, 0, 0, 0), false));
+    log.add("next round");
+    executor.process(FakeElements.round(List.of(), true));
+    assertEquals(List.of("task sees ready", "next round"), log);
+  }
+
+  @Test
+  void testMetricsCountReevaluationsSeparately() throws IOException {
+    List<Element> roots = FakeElements.classes(20, 3, 3, 1);
+    Path sequential = Files.createTempFile("metrics", ".json");
+    Path parallel = Files.createTempFile("metrics", ".json");
+    try {
+      run(roots, 1, sequential);
+      run(roots, 4, parallel);
+      // The tasks of a wave miss the globals set by the earlier tasks, and are
+      // evaluated again.
+      assertEquals(sum(sequential, "tasks"), sum(parallel, "tasks"));
+      assertEquals(0, sum(sequential, "reevaluated"));
+      assertTrue(sum(parallel, "reevaluated") > 0);
+    }
+    finally {
+      Files.delete(sequential);
+      Files.delete(parallel);
+    }
+  }
+
+  @Test
+  void testDeferredTaskRunsInNextRound() {
+    List<String> log = new ArrayList<>();
+    Set<String> deferred = new HashSet<>();
+    SegmentedExecutor executor = new SegmentedExecutor(FakeElements.processingEnv());
+    executor.addVisitor(new Visitor() {
+      @Override
+      public @NotNull Boolean visitUnknown(@NotNull Element element, @NotNull Preliminary preliminary) {
+        String name = element.toString();
+        if (name.equals("C0.f1") && deferred.add(name)) {
+          return false;
+        }
+        preliminary.action(name, (item, definitely) -> log.add(item));
+        if (element.getKind() == ElementKind.CLASS) {
+          preliminary.finalize(name, (item, finalizer) -> {
+            finalizer.action(item, (i, definitely) -> log.add("final " + i));
+            return true;
+          });
+        }
+        return true;
+      }
+    }, true);
+
+    executor.process(FakeElements.round(FakeElements.classes(2, 2, 0, 0), false));
+    log.add("next round");
+    executor.process(FakeElements.round(List.of(), true));
+    assertEquals(List.of("C0", "C1", "C0.f0", "C1.f0", "C1.f1", "final C1", "next round", "C0.f1", "final C0"), log);
+  }
+
+  @Test
+  void testReductionOrderWithInlinedElements() {
+    ReductionKey<String> names = new ReductionKey<>("names", (first, second) -> first + "," + second);
+    List<String> result = new ArrayList<>();
+    Set<String> deferred = new HashSet<>();
+    SegmentedExecutor executor = new SegmentedExecutor(FakeElements.processingEnv());
+    executor.addVisitor(new Visitor() {
+      @Override
+      public @NotNull Boolean visitUnknown(@NotNull Element element, @NotNull Preliminary preliminary) {
+        String name = element.toString();
+        // The fields of the nested class are visited within its task, except
+        // for the deferred one.
+        if (name.equals("C0$N0.f1") && deferred.add(name)) {
+          return false;
+        }
+        preliminary.contribute(names, name);
+        if (name.equals("C0")) {
+          preliminary.finalize(name, (item, finalizer) -> {
+            result.add(finalizer.get(names.key()));
+            return true;
+          });
+        }
+        return true;
+      }
+    }, true);
+
+    executor.process(FakeElements.round(FakeElements.classes(1, 3, 0, 1), false));
+    executor.process(FakeElements.round(List.of(), true));
+    assertEquals(List.of("C0,C0.f0,C0.f1,C0.f2,C0$N0,C0$N0.f0,C0$N0.f1,C0$N0.f2"), result);
+  }
+
+  private static @NotNull List<String> run(@NotNull List<Element> roots, int parallelism) {
+    return run(roots, parallelism, null);
+  }
+
+  private static @NotNull List<String> run(@NotNull List<Element> roots, int parallelism, @Nullable Path metrics) {
+    List<String> log = new ArrayList<>();
+    SegmentedExecutor executor = new SegmentedExecutor(FakeElements.processingEnv());
+    executor.setParallelism(parallelism);
+    if (metrics != null) {
+      executor.enableMetrics(metrics);
+    }
+    executor.addVisitor(new CountingVisitor(log), true);
+    executor.process(FakeElements.round(roots, false));
+    executor.process(FakeElements.round(List.of(), true));
+    return log;
+  }
+
+  /**
+   * Runs the given function for two classes in one round.
+   */
+  private static void runTypes(@NotNull List<String> log, @NotNull SchedulingStrategy strategy, int parallelism, @NotNull BiPredicate<Element, Preliminary> function) {
+    SegmentedExecutor executor = new SegmentedExecutor(FakeElements.processingEnv());
+    executor.setSchedulingStrategy(strategy);
+    executor.setParallelism(parallelism);
+    executor.addVisitor(new FunctionVisitor(function), ElementKind.CLASS);
+    executor.process(FakeElements.round(FakeElements.classes(2, 0, 0, 0), false));
+    log.add("next round");
+    executor.process(FakeElements.round(List.of(), true));
+  }
+
+  /**
+   * Runs a visitor whose actions count the fields with a matching name via a
+   * global value.
+   */
+  private static @NotNull List<String> runFields(@NotNull List<Element> roots, int parallelism, @NotNull Predicate<String> counted) {
+    List<String> log = new ArrayList<>();
+    SegmentedExecutor executor = new SegmentedExecutor(FakeElements.processingEnv());
+    executor.setParallelism(parallelism);
+    executor.addVisitor(new FieldCountingVisitor(log, counted), true);
+    executor.process(FakeElements.round(roots, false));
+    executor.process(FakeElements.round(List.of(), true));
+    return log;
+  }
+
+  /**
+   * Returns the sum of the given numeric property over all entries of the
+   * JSON report.
+   */
+  private static long sum(@NotNull Path metrics, @NotNull String property) throws IOException {
+    Matcher matcher = Pattern.compile("\"" + property + "\":(\\d+)").matcher(Files.readString(metrics));
+    long result = 0;
+    while (matcher.find()) {
+      result += Long.parseLong(matcher.group(1));
+    }
+    return result;
+  }
+
+  private static final class FunctionVisitor implements Visitor, ThreadSafe {
+    private final @NotNull BiPredicate<Element, Preliminary> function;
+
+    private FunctionVisitor(@NotNull BiPredicate<Element, Preliminary> function) {
+      this.function = function;
+    }
+
+    @Override
+    public @NotNull Boolean visitUnknown(@NotNull Element element, @NotNull Preliminary preliminary) {
+      return function.test(element, preliminary);
+    }
+  }
+
+  private static final class FieldCountingVisitor implements Visitor, ThreadSafe {
+    private final @NotNull List<String> log;
+    private final @NotNull Predicate<String> counted;
+
+    private FieldCountingVisitor(@NotNull List<String> log, @NotNull Predicate<String> counted) {
+      this.log = log;
+      this.counted = counted;
+    }
+
+    @Override
+    public @NotNull Boolean visitVariable(@NotNull VariableElement element, @NotNull Preliminary preliminary) {
+      if (counted.test(element.toString())) {
+        Integer observed = preliminary.getOrNull(COUNT);
+        int count = observed == null ? 0 : observed;
+        preliminary.action(element, (item, definitely) -> {
+          log.add(item + "=" + count);
+          definitely.setGlobal(COUNT, count + 1);
+        });
+      }
+      return true;
+    }
+  }
+
+  private static final class CountingVisitor implements Visitor, ThreadSafe {
+    private final @NotNull List<String> log;
+
+    private CountingVisitor(@NotNull List<String> log) {
+      this.log = log;
+    }
+
+    @Override
+    public @NotNull Boolean visitUnknown(@NotNull Element element, @NotNull Preliminary preliminary) {
+      Integer observed = preliminary.getOrNull(COUNT);
+      int count = observed == null ? 0 : observed;
+      preliminary.action(element, (item, definitely) -> {
+        log.add(item + "=" + count);
+        definitely.setGlobal(COUNT, count + 1);
+      });
+      return true;
+    }
+  }
+}
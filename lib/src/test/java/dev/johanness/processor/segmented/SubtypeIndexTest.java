@@ -0,0 +1,61 @@
+package dev.johanness.processor.segmented;
+
+import org.junit.jupiter.api.Test;
+
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import java.util.List;
+
+import static dev.johanness.processor.TypeFixtures.declared;
+import static dev.johanness.processor.TypeFixtures.mirror;
+import static dev.johanness.processor.TypeFixtures.type;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.doReturn;
+
+final class SubtypeIndexTest {
+  @Test
+  void testTransitiveSubtypes() {
+    TypeElement object = type(ElementKind.CLASS, mirror(TypeKind.NONE));
+    TypeElement a = type(ElementKind.CLASS, declared(object));
+    TypeElement i = type(ElementKind.INTERFACE, mirror(TypeKind.NONE));
+    TypeElement j = type(ElementKind.INTERFACE, mirror(TypeKind.NONE), declared(i));
+    TypeElement b = type(ElementKind.CLASS, declared(a), declared(i));
+    TypeElement nested = type(ElementKind.CLASS, declared(b));
+    doReturn(List.of(nested)).when(b).getEnclosedElements();
+    TypeElement c = type(ElementKind.CLASS, declared(object), declared(j));
+
+    SubtypeIndex index = new SubtypeIndex();
+    index.addRound(List.of(a, b, c, i, j));
+    assertEquals(List.of(a, b, nested, c), index.getSubtypes(object));
+    assertEquals(List.of(b, nested), index.getSubtypes(a));
+    assertEquals(List.of(b, nested, c, j), index.getSubtypes(i));
+    assertEquals(List.of(c), index.getSubtypes(j));
+    assertEquals(List.of(), index.getSubtypes(c));
+    assertEquals(List.of(a, c), index.getDirectSubtypes(object));
+    assertEquals(List.of(b, j), index.getDirectSubtypes(i));
+  }
+
+  @Test
+  void testIncompleteTypes() {
+    TypeElement i = type(ElementKind.INTERFACE, mirror(TypeKind.NONE));
+    TypeElement b = type(ElementKind.CLASS, mirror(TypeKind.ERROR), declared(i));
+
+    SubtypeIndex index = new SubtypeIndex();
+    index.addRound(List.of(b));
+    // The supertypes which can be resolved are indexed right away.
+    assertEquals(List.of(b), index.getSubtypes(i));
+
+    // The type is indexed again while its superclass is missing.
+    index.addRound(List.of());
+    TypeElement object = type(ElementKind.CLASS, mirror(TypeKind.NONE));
+    TypeElement a = type(ElementKind.CLASS, declared(object));
+    doReturn(declared(a)).when(b).getSuperclass();
+    TypeElement other = type(ElementKind.CLASS, declared(a));
+    index.addRound(List.of(other));
+    assertEquals(List.of(b, other), index.getSubtypes(a));
+    assertEquals(List.of(b, other), index.getSubtypes(object));
+    assertEquals(List.of(b, other), index.getDirectSubtypes(a));
+    assertEquals(List.of(b), index.getSubtypes(i));
+  }
+}
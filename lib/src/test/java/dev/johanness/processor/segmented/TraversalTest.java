@@ -0,0 +1,103 @@
+package dev.johanness.processor.segmented;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.lang.model.element.Element;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+final class TraversalTest {
+  private static final Key<String> LAST = new Key<>("last");
+  private static final Key<String> OWNER = new Key<>("owner");
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 4})
+  void testLaneSeesGlobalsOfEarlierLane(int parallelism) {
+    List<String> log = new ArrayList<>();
+    SegmentedExecutor executor = new SegmentedExecutor(FakeElements.processingEnv());
+    executor.setParallelism(parallelism);
+    executor.addVisitor(new ThreadSafeVisitor((element, preliminary) -> {
+      preliminary.action(element.toString(), (name, definitely) -> definitely.setGlobal(LAST, name));
+      return true;
+    }), true);
+    executor.addVisitor(new ThreadSafeVisitor((element, preliminary) -> {
+      String observed = preliminary.getOrNull(LAST);
+      preliminary.action(element.toString(), (name, definitely) -> log.add(name + "=" + observed));
+      return true;
+    }), true);
+
+    executor.process(FakeElements.round(FakeElements.classes(2, 1, 0, 0), false));
+    executor.process(FakeElements.round(List.of(), true));
+    // Like separate tasks, the second visitor sees the value set by the
+    // actions of the first visitor for the same element.
+    assertEquals(List.of("C0=C0", "C1=C1", "C0.f0=C0.f0", "C1.f0=C1.f0"), log);
+  }
+
+  @Test
+  void testLanesKeepTheirValues() {
+    List<String> log = new ArrayList<>();
+    SegmentedExecutor executor = new SegmentedExecutor(FakeElements.processingEnv());
+    for (String lane : List.of("a", "b")) {
+      executor.addVisitor(new ThreadSafeVisitor((element, preliminary) -> {
+        if (element.toString().equals("C0")) {
+          preliminary.set(OWNER, lane);
+        }
+        else {
+          log.add(lane + ":" + element + "=" + preliminary.getOrNull(OWNER));
+        }
+        return true;
+      }), true);
+    }
+
+    executor.process(FakeElements.round(FakeElements.classes(1, 1, 0, 0), false));
+    executor.process(FakeElements.round(List.of(), true));
+    assertEquals(List.of("a:C0.f0=a", "b:C0.f0=b"), log);
+  }
+
+  @Test
+  void testDeferredLaneContinuesOnItsOwn() {
+    List<String> log = new ArrayList<>();
+    Set<Element> deferred = new HashSet<>();
+    SegmentedExecutor executor = new SegmentedExecutor(FakeElements.processingEnv());
+    executor.addVisitor(new ThreadSafeVisitor((element, preliminary) -> {
+      if (element.toString().equals("C0") && deferred.add(element)) {
+        return false;
+      }
+      preliminary.action(element.toString(), (name, definitely) -> log.add("a:" + name));
+      return true;
+    }), true);
+    executor.addVisitor(new ThreadSafeVisitor((element, preliminary) -> {
+      preliminary.action(element.toString(), (name, definitely) -> log.add("b:" + name));
+      return true;
+    }), true);
+
+    executor.process(FakeElements.round(FakeElements.classes(1, 1, 0, 0), false));
+    log.add("next round");
+    executor.process(FakeElements.round(List.of(), true));
+    assertEquals(List.of("b:C0", "b:C0.f0", "next round", "a:C0", "a:C0.f0"), log);
+  }
+
+  private interface VisitFunction {
+    boolean visit(@NotNull Element element, @NotNull Preliminary preliminary);
+  }
+
+  private static final class ThreadSafeVisitor implements Visitor, ThreadSafe {
+    private final @NotNull VisitFunction function;
+
+    private ThreadSafeVisitor(@NotNull VisitFunction function) {
+      this.function = function;
+    }
+
+    @Override
+    public @NotNull Boolean visitUnknown(@NotNull Element element, @NotNull Preliminary preliminary) {
+      return function.visit(element, preliminary);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package dev.johanness.processor.segmented._internal;
+
+import dev.johanness.processor.TypeFixtures;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Types;
+import java.util.List;
+
+import static dev.johanness.processor.TypeFixtures.declared;
+import static dev.johanness.processor.TypeFixtures.mirror;
+import static dev.johanness.processor.TypeFixtures.none;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+final class CachingTypesTest {
+  private final TypeElement list = type(none());
+  private final TypeElement string = type(none());
+
+  @Test
+  void testCacheHits() {
+    Types delegate = delegate();
+    CachingTypes types = new CachingTypes(delegate, 100);
+    // Equal types are usually different instances.
+    assertTrue(types.isSubtype(declared(list, declared(string)), declared(list, declared(string))));
+    assertTrue(types.isSubtype(declared(list, declared(string)), declared(list, declared(string))));
+    assertTrue(types.isAssignable(declared(string), declared(list)));
+    assertTrue(types.isAssignable(declared(string), declared(list)));
+    verify(delegate, times(1)).isSubtype(any(), any());
+    verify(delegate, times(1)).isAssignable(any(), any());
+    assertEquals(2, types.getHits());
+    assertEquals(2, types.getMisses());
+
+    DeclaredType erased = declared(list);
+    doReturn(erased).when(delegate).erasure(any());
+    assertSame(erased, types.erasure(declared(list, declared(string))));
+    assertSame(erased, types.erasure(declared(list, declared(string))));
+    verify(delegate, times(1)).erasure(any());
+  }
+
+  @Test
+  void testErasureIsTheErasureOfTheCompiler() {
+    Types delegate = delegate();
+    CachingTypes types = new CachingTypes(delegate, 100);
+    when(delegate.erasure(any())).then(invocation -> {
+      TypeMirror type = invocation.getArgument(0);
+      // Arrays are erased to a new instance. Some declared types, like
+      // String, are returned unchanged.
+      return type.getKind() == TypeKind.ARRAY ? array(declared(list)) : type;
+    });
+    ArrayType array = array(declared(list, declared(string)));
+    assertNotSame(types.erasure(array), types.erasure(array));
+    DeclaredType first = declared(string);
+    DeclaredType second = declared(string);
+    assertSame(first, types.erasure(first));
+    assertSame(second, types.erasure(second));
+    verify(delegate, times(4)).erasure(any());
+  }
+
+  @Test
+  void testBypass() {
+    Types delegate = delegate();
+    CachingTypes types = new CachingTypes(delegate, 100);
+    TypeMirror error = mirror(TypeKind.ERROR);
+    TypeMirror typeVariable = mirror(TypeKind.TYPEVAR);
+    DeclaredType annotated = declared(string);
+    doReturn(List.of(mock(AnnotationMirror.class))).when(annotated).getAnnotationMirrors();
+    for (int i = 0; i < 2; i++) {
+      types.isSubtype(error, declared(string));
+      types.isSubtype(declared(list, typeVariable), declared(list, typeVariable));
+      types.isSubtype(annotated, declared(string));
+      types.isSubtype(declared(list, annotated), declared(list, declared(string)));
+    }
+    verify(delegate, times(8)).isSubtype(any(), any());
+    assertEquals(0, types.getHits());
+    assertEquals(0, types.getMisses());
+  }
+
+  @Test
+  void testUnstableClasses() {
+    Types delegate = delegate();
+    CachingTypes types = new CachingTypes(delegate, 100);
+    TypeMirror missing = mirror(TypeKind.ERROR);
+    TypeElement incomplete = type(missing);
+    TypeElement subclass = type(declared(incomplete));
+    types.newRound(List.of(incomplete));
+
+    // The superclass can be resolved in the next round, but the compiler
+    // may still use the outdated type.
+    doReturn(declared(string)).when(incomplete).getSuperclass();
+    types.newRound(List.of(subclass));
+    for (int i = 0; i < 2; i++) {
+      types.isSubtype(declared(incomplete), declared(string));
+      types.isSubtype(declared(subclass), declared(string));
+    }
+    verify(delegate, times(4)).isSubtype(any(), any());
+  }
+
+  @Test
+  void testEviction() {
+    Types delegate = delegate();
+    CachingTypes types = new CachingTypes(delegate, 2);
+    TypeElement other = type(none());
+    types.isSubtype(declared(list), declared(string));
+    types.isSubtype(declared(string), declared(list));
+    // Keeps the first entry as the most recently used one.
+    types.isSubtype(declared(list), declared(string));
+    types.isSubtype(declared(other), declared(list));
+    types.isSubtype(declared(list), declared(string));
+    verify(delegate, times(3)).isSubtype(any(), any());
+    types.isSubtype(declared(string), declared(list));
+    verify(delegate, times(4)).isSubtype(any(), any());
+  }
+
+  @Test
+  void testWildcardArguments() {
+    Types delegate = delegate();
+    CachingTypes types = new CachingTypes(delegate, 100);
+    types.isSubtype(declared(list, wildcard(declared(string), null)), declared(list));
+    types.isSubtype(declared(list, wildcard(declared(string), null)), declared(list));
+    verify(delegate, times(1)).isSubtype(any(), any());
+    types.isSubtype(declared(list, wildcard(null, declared(string))), declared(list));
+    types.isSubtype(declared(list, wildcard(null, null)), declared(list));
+    verify(delegate, times(3)).isSubtype(any(), any());
+
+    // Wildcards themselves are passed on.
+    types.isSubtype(wildcard(null, null), declared(list));
+    types.isSubtype(wildcard(null, null), declared(list));
+    verify(delegate, times(5)).isSubtype(any(), any());
+  }
+
+  private static @NotNull Types delegate() {
+    Types delegate = mock(Types.class);
+    doReturn(true).when(delegate).isSubtype(any(), any());
+    doReturn(true).when(delegate).isAssignable(any(), any());
+    return delegate;
+  }
+
+  private static @NotNull TypeElement type(@NotNull TypeMirror superclass) {
+    return TypeFixtures.type(ElementKind.CLASS, superclass);
+  }
+
+  private static @NotNull ArrayType array(@NotNull TypeMirror componentType) {
+    ArrayType type = mock(ArrayType.class);
+    when(type.getKind()).thenReturn(TypeKind.ARRAY);
+    doReturn(List.of()).when(type).getAnnotationMirrors();
+    doReturn(componentType).when(type).getComponentType();
+    return type;
+  }
+
+  private static @NotNull WildcardType wildcard(@Nullable TypeMirror extendsBound, @Nullable TypeMirror superBound) {
+    WildcardType type = mock(WildcardType.class);
+    when(type.getKind()).thenReturn(TypeKind.WILDCARD);
+    doReturn(List.of()).when(type).getAnnotationMirrors();
+    doReturn(extendsBound).when(type).getExtendsBound();
+    doReturn(superBound).when(type).getSuperBound();
+    return type;
+  }
+}
@@ -0,0 +1,93 @@
+package dev.johanness.processor.segmented._internal;
+
+import dev.johanness.processor.segmented.Key;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class KeyValuesTest {
+  @Test
+  void testWith() {
+    Key<String> key1 = new Key<>("key1");
+    Key<String> key2 = new Key<>("key2");
+    KeyValues values1 = KeyValues.empty().with(key1, "a");
+    KeyValues values2 = values1.with(key2, "b");
+    KeyValues values3 = values2.with(key1, "c");
+    assertEquals("a", values1.get(key1));
+    assertNull(values1.get(key2));
+    assertEquals("a", values2.get(key1));
+    assertEquals("b", values2.get(key2));
+    assertEquals("c", values3.get(key1));
+    assertEquals("b", values3.get(key2));
+  }
+
+  @Test
+  void testManyKeys() {
+    List<Key<Integer>> keys = new ArrayList<>();
+    KeyValues values = KeyValues.empty();
+    for (int i = 0; i < 2000; i++) {
+      Key<Integer> key = new Key<>("key" + i);
+      keys.add(key);
+      values = values.with(key, i);
+    }
+    for (int i = 0; i < keys.size(); i++) {
+      assertEquals(i, values.get(keys.get(i)));
+    }
+  }
+
+  @Test
+  void testFallback() {
+    Key<String> key1 = new Key<>("key1");
+    Key<String> key2 = new Key<>("key2");
+    KeyValues fallback = KeyValues.empty().with(key1, "a").with(key2, "b");
+    KeyValues values = KeyValues.empty().with(key1, "c").with(key2, null);
+    assertEquals("c", values.get(key1, fallback));
+    assertEquals("b", values.get(key2, fallback));
+    assertFalse(values.contains(key2));
+    assertEquals("b", KeyValues.empty().get(key2, fallback));
+    assertFalse(KeyValues.empty().contains(key2));
+    assertFalse(values.with(key1, null).contains(key1));
+    assertEquals("a", values.with(key1, null).get(key1, fallback));
+  }
+
+  @Test
+  void testInherit() {
+    Key<String> key1 = new Key<>("key1");
+    Key<String> key2 = new Key<>("key2");
+    KeyValues parent = KeyValues.empty().with(key1, "a");
+    KeyValues child = parent.inherit().with(key1, "b").with(key2, "c");
+    assertEquals("b", child.get(key1));
+    assertEquals("a", child.with(key1, null).get(key1));
+    assertTrue(child.with(key1, null).contains(key1));
+    assertNull(child.with(key2, null).get(key2));
+    assertFalse(child.with(key2, null).contains(key2));
+    assertSame(KeyValues.empty(), KeyValues.empty().inherit());
+
+    // Values of grandchildren revert to the values of their parent.
+    KeyValues grandchild = child.inherit().with(key1, "d");
+    assertEquals("b", grandchild.with(key1, null).get(key1));
+  }
+
+  @Test
+  void testWithChanges() {
+    Key<String> key1 = new Key<>("key1");
+    Key<String> key2 = new Key<>("key2");
+    Key<String> key3 = new Key<>("key3");
+    KeyValues base = KeyValues.empty().with(key1, "a");
+    KeyValues changed = base.with(key2, "b");
+    KeyValues target = base.with(key1, "x").with(key3, "y");
+    KeyValues result = target.withChanges(base, changed);
+    assertEquals("x", result.get(key1));
+    assertEquals("b", result.get(key2));
+    assertEquals("y", result.get(key3));
+    assertSame(changed, base.withChanges(base, changed));
+    assertSame(target, target.withChanges(base, base));
+  }
+}
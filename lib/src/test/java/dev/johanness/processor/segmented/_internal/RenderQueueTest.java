@@ -0,0 +1,59 @@
+package dev.johanness.processor.segmented._internal;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+final class RenderQueueTest {
+  private final RenderQueue queue = new RenderQueue();
+
+  @AfterEach
+  void shutdown() {
+    queue.shutdown();
+  }
+
+  @Test
+  void testOrder() {
+    List<String> written = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      int index = i;
+      queue.submit(() -> "file" + index, result -> {
+        written.add(result);
+        if (index == 0) {
+          queue.submit(() -> "nested", written::add);
+        }
+      });
+    }
+    queue.flush();
+    assertEquals(List.of("file0", "file1", "file2", "file3", "file4", "file5", "file6", "file7", "file8", "file9", "nested"), written);
+  }
+
+  @Test
+  void testFailures() {
+    List<String> written = new ArrayList<>();
+    queue.submit(() -> "a", written::add);
+    queue.<String>submit(() -> {
+      throw new IllegalStateException("job");
+    }, written::add);
+    queue.submit(() -> "b", result -> {
+      throw new IllegalArgumentException("writer");
+    });
+    queue.submit(() -> "c", written::add);
+
+    IllegalStateException exception = assertThrows(IllegalStateException.class, queue::flush);
+    assertEquals("job", exception.getMessage());
+    assertEquals(1, exception.getSuppressed().length);
+    assertEquals("writer", exception.getSuppressed()[0].getMessage());
+    assertEquals(List.of("a", "c"), written);
+
+    // The failed writes are not repeated.
+    queue.submit(() -> "d", written::add);
+    queue.flush();
+    assertEquals(List.of("a", "c", "d"), written);
+  }
+}
@@ -0,0 +1,100 @@
+package dev.johanness.processor.segmented._internal;
+
+import dev.johanness.processor.segmented.SchedulingStrategy;
+import dev.johanness.processor.segmented.SubProcessor;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class TaskQueueTest {
+  private static final SubProcessor<String> PROCESSOR = (item, preliminary) -> true;
+  private static final SubProcessor<String> UNBLOCKING = (item, preliminary) -> true;
+
+  @Test
+  void testFifo() {
+    TaskQueue queue = TaskQueue.create(SchedulingStrategy.FIFO);
+    add(queue, "a", "b");
+    assertEquals("a", queue.remove().getItem());
+    add(queue, "c");
+    assertEquals(List.of("b", "c"), items(queue));
+    assertEquals(List.of("b", "c"), removeAll(queue));
+  }
+
+  @Test
+  void testDepthFirst() {
+    TaskQueue queue = TaskQueue.create(SchedulingStrategy.DEPTH_FIRST);
+    add(queue, "a", "b");
+    assertEquals("a", queue.remove().getItem());
+    // The children of "a" run before its sibling, in the order of creation.
+    add(queue, "a1", "a2");
+    assertEquals(3, queue.size());
+    assertEquals(List.of("a1", "a2", "b"), removeAll(queue));
+  }
+
+  @Test
+  void testDepthFirstIterator() {
+    TaskQueue queue = TaskQueue.create(SchedulingStrategy.DEPTH_FIRST);
+    add(queue, "a", "b");
+    assertEquals("a", queue.remove().getItem());
+    add(queue, "a1", "a2");
+
+    // Iterating does not change the order of later tasks.
+    assertEquals(List.of("a1", "a2", "b"), items(queue));
+    add(queue, "c");
+    assertEquals(List.of("a1", "a2", "c", "b"), items(queue));
+    assertEquals(List.of("a1", "a2", "c", "b"), removeAll(queue));
+  }
+
+  @Test
+  void testPriority() {
+    TaskQueue queue = TaskQueue.create(SchedulingStrategy.PRIORITY);
+    add(queue, "a");
+    queue.add(new Task<>(UNBLOCKING, "u1"));
+    queue.markUnblocking(UNBLOCKING);
+    add(queue, "b");
+    queue.add(new Task<>(UNBLOCKING, "u2"));
+    // Only tasks which are added after the sub-processor was marked are
+    // preferred.
+    assertEquals(List.of("u2", "a", "u1", "b"), items(queue));
+    assertEquals(List.of("u2", "a", "u1", "b"), removeAll(queue));
+  }
+
+  @Test
+  void testEmpty() {
+    for (SchedulingStrategy strategy : SchedulingStrategy.values()) {
+      TaskQueue queue = TaskQueue.create(strategy);
+      assertTrue(queue.isEmpty());
+      assertEquals(0, queue.size());
+      assertThrows(NoSuchElementException.class, queue::remove);
+    }
+  }
+
+  private static void add(@NotNull TaskQueue queue, @NotNull String... items) {
+    for (String item : items) {
+      queue.add(new Task<>(PROCESSOR, item));
+    }
+  }
+
+  private static @NotNull List<Object> items(@NotNull TaskQueue queue) {
+    List<Object> result = new ArrayList<>();
+    for (Task<?> task : queue) {
+      result.add(task.getItem());
+    }
+    return result;
+  }
+
+  private static @NotNull List<Object> removeAll(@NotNull TaskQueue queue) {
+    List<Object> result = new ArrayList<>();
+    while (!queue.isEmpty()) {
+      result.add(queue.remove().getItem());
+    }
+    return result;
+  }
+}
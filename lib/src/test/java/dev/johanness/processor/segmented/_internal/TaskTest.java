@@ -0,0 +1,159 @@
+package dev.johanness.processor.segmented._internal;
+
+import dev.johanness.processor.segmented.Key;
+import dev.johanness.processor.segmented.ReductionKey;
+import dev.johanness.processor.segmented.SubProcessor;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+final class TaskTest {
+  private static final SubProcessor<String> PROCESSOR = (item, preliminary) -> true;
+  private static final ReductionKey<String> NAMES = new ReductionKey<>("names", (first, second) -> first + "," + second);
+
+  @Test
+  void testFinishAfterChildren() {
+    Task<String> parent = new Task<>(PROCESSOR, "parent");
+    Task<String> first = new Task<>(PROCESSOR, "first");
+    Task<String> second = new Task<>(PROCESSOR, "second");
+    parent.addChild(first);
+    parent.addChild(second);
+    Task<String> finalizer = new Task<>(PROCESSOR, "finalizer");
+    parent.addFinalizer(finalizer);
+
+    List<Task<?>> scheduled = new ArrayList<>();
+    second.finish(scheduled::add);
+    parent.finish(scheduled::add);
+    assertEquals(List.of(), scheduled);
+    first.finish(scheduled::add);
+    assertEquals(List.of(finalizer), scheduled);
+  }
+
+  @Test
+  void testFinalizersAfterDescendants() {
+    Task<String> root = new Task<>(PROCESSOR, "root");
+    Task<String> rootFinalizer = new Task<>(PROCESSOR, "rootFinalizer");
+    root.addFinalizer(rootFinalizer);
+    Task<String> child = new Task<>(PROCESSOR, "child");
+    root.addChild(child);
+    Task<String> childFinalizer = new Task<>(PROCESSOR, "childFinalizer");
+    child.addFinalizer(childFinalizer);
+    Task<String> grandchild = new Task<>(PROCESSOR, "grandchild");
+    child.addChild(grandchild);
+
+    List<Task<?>> scheduled = new ArrayList<>();
+    root.finish(scheduled::add);
+    child.finish(scheduled::add);
+    assertEquals(List.of(), scheduled);
+    grandchild.finish(scheduled::add);
+    assertEquals(List.of(childFinalizer), scheduled);
+
+    // Tasks added by a finalizer delay the finalizers of the ancestors.
+    Task<String> late = new Task<>(PROCESSOR, "late");
+    childFinalizer.addChild(late);
+    childFinalizer.finish(scheduled::add);
+    assertEquals(List.of(childFinalizer), scheduled);
+    late.finish(scheduled::add);
+    assertEquals(List.of(childFinalizer, rootFinalizer), scheduled);
+    rootFinalizer.finish(scheduled::add);
+    assertEquals(List.of(childFinalizer, rootFinalizer), scheduled);
+  }
+
+  @Test
+  void testValuesOfChildren() {
+    Key<String> key = new Key<>("key");
+    Task<String> parent = new Task<>(PROCESSOR, "parent");
+    parent.setValues(KeyValues.empty().with(key, "parent"));
+    Task<String> child = new Task<>(PROCESSOR, "child");
+    parent.addChild(child);
+    parent.setValues(parent.getValues().with(key, "changed"));
+    assertEquals("parent", child.getValues().get(key));
+    assertSame(parent, child.getOwner());
+    assertThrows(IllegalArgumentException.class, () -> parent.addFinalizer(child));
+  }
+
+  @Test
+  void testDeferrals() {
+    KeyValues globals = KeyValues.empty();
+    Task<String> task = new Task<>(PROCESSOR, "task");
+    task.defer(globals);
+    assertEquals(1, task.getDeferrals());
+    assertEquals(0, task.getStalledRounds());
+    task.defer(globals);
+    task.defer(globals);
+    assertEquals(3, task.getDeferrals());
+    assertEquals(2, task.getStalledRounds());
+
+    // Other globals, or a blocked task, reset the stalled rounds.
+    task.defer(globals.with(new Key<>("key"), "value"));
+    assertEquals(0, task.getStalledRounds());
+    task.defer(null);
+    task.defer(null);
+    assertEquals(6, task.getDeferrals());
+    assertEquals(0, task.getStalledRounds());
+  }
+
+  @Test
+  void testReductionsInCreationOrder() {
+    Task<String> parent = new Task<>(PROCESSOR, "parent");
+    Task<String> finalizer = new Task<>(PROCESSOR, "finalizer");
+    parent.addFinalizer(finalizer);
+    List<Task<String>> children = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      Task<String> child = new Task<>(PROCESSOR, "child" + i);
+      parent.addChild(child);
+      child.contribute(contribution("child" + i));
+      children.add(child);
+    }
+    Task<String> grandchild = new Task<>(PROCESSOR, "grandchild");
+    children.get(1).addChild(grandchild);
+    grandchild.contribute(contribution("grandchild"));
+    parent.contribute(contribution("parent"));
+
+    List<Task<?>> scheduled = new ArrayList<>();
+    parent.finish(scheduled::add);
+    // The children finish in reverse order.
+    for (int i = children.size() - 1; i >= 0; i--) {
+      children.get(i).finish(scheduled::add);
+    }
+    assertEquals(List.of(), scheduled);
+    grandchild.finish(scheduled::add);
+
+    assertEquals(List.of(finalizer), scheduled);
+    assertEquals("parent,child0,child1,grandchild,child2", finalizer.getValues().get(NAMES.key()));
+  }
+
+  @Test
+  void testReductionsOfFinalizers() {
+    Task<String> root = new Task<>(PROCESSOR, "root");
+    Task<String> rootFinalizer = new Task<>(PROCESSOR, "rootFinalizer");
+    root.addFinalizer(rootFinalizer);
+    Task<String> parent = new Task<>(PROCESSOR, "parent");
+    root.addChild(parent);
+    Task<String> finalizer = new Task<>(PROCESSOR, "finalizer");
+    parent.addFinalizer(finalizer);
+
+    List<Task<?>> scheduled = new ArrayList<>();
+    root.finish(scheduled::add);
+    parent.finish(scheduled::add);
+    assertSame(finalizer, scheduled.get(0));
+    assertNull(finalizer.getValues().get(NAMES.key()));
+
+    finalizer.contribute(contribution("finalizer"));
+    finalizer.finish(scheduled::add);
+    assertEquals(List.of(finalizer, rootFinalizer), scheduled);
+    assertEquals("finalizer", rootFinalizer.getValues().get(NAMES.key()));
+  }
+
+  private static Reductions contribution(String name) {
+    Reductions reductions = new Reductions();
+    reductions.add(NAMES, name);
+    return reductions;
+  }
+}
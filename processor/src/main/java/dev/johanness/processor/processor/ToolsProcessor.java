@@ -3,6 +3,7 @@
 import dev.johanness.processor.AnnotationType;
 import dev.johanness.processor.processor.annotation.Annotations;
 import dev.johanness.processor.processor.visitor.AnnotationTypesVisitor;
+import dev.johanness.processor.segmented.IncrementalCategory;
 import dev.johanness.processor.segmented.ProcessorConfig;
 import dev.johanness.processor.segmented.SegmentedProcessor;
 import org.jetbrains.annotations.NotNull;
@@ -14,7 +15,7 @@
 public final class ToolsProcessor extends SegmentedProcessor {
 
   public ToolsProcessor() {
-    super(SourceVersion.latestSupported(), Set.of(Annotations.GENERATE_ANNOTATION_TYPES));
+    super(SourceVersion.latestSupported(), Set.of(Annotations.GENERATE_ANNOTATION_TYPES), IncrementalCategory.ISOLATING);
   }
 
   @Override
@@ -17,6 +17,7 @@
 import dev.johanness.processor.segmented.Definitely;
 import dev.johanness.processor.segmented.Key;
 import dev.johanness.processor.segmented.Preliminary;
+import dev.johanness.processor.segmented.ReductionKey;
 import dev.johanness.processor.segmented.Visitor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -35,9 +36,6 @@
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Elements;
 import javax.tools.Diagnostic;
-import javax.tools.JavaFileObject;
-import java.io.IOException;
-import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Function;
@@ -52,6 +50,7 @@
 public final class AnnotationTypesVisitor implements Visitor {
   private static final @NotNull String GENERATOR_SUFFIX = "Generator";
   private static final @NotNull Key<Collector> COLLECTOR = new Key<>("collector");
+  private static final @NotNull ReductionKey<List<AnnotationData>> FIELDS = new ReductionKey<>("fields", AnnotationTypesVisitor::concat);
 
   @Override
   public @NotNull Boolean visitType(@NotNull TypeElement element, @NotNull Preliminary preliminary) {
@@ -150,9 +149,10 @@ else if (element.getQualifiedName().contentEquals("")) {
     AnnotationData annotationData = new AnnotationData(
         element.getSimpleName().toString(),
         annotationElement,
+        collector.generatorElement,
         preliminary.elementUtils().getPackageOf(collector.generatorElement));
     preliminary.action(annotationData, this::generateAnnotationType);
-    collector.fields.add(annotationData);
+    preliminary.contribute(FIELDS, List.of(annotationData));
     return true;
   }
 
@@ -183,22 +183,35 @@ private void generateAnnotationType(@NotNull AnnotationData data, @NotNull Defin
           .addMethod(MethodSpec.methodBuilder(name)
               .returns(returnType.returnType)
               .addModifiers(Modifier.PUBLIC)
-              .addJavadoc("See {@link $T#$L $L} on annotation interface.", data.annotationElement, method, method)
+              .addJavadoc("See {@link $T#$L $L} on annotation interface.", data.annotationElement, name, name)
               .addStatement("this.$N = readValue(this.$N, $S, $L)", name, name, name, returnType.valueTypeMethod)
               .addStatement("return this.$N", name)
               .build());
     }
 
+    // The annotation interface may not be part of the compilation. It is
+    // reachable from the generator, which is therefore sufficient as the only
+    // originating element.
     writeFile(definitely, data.destinationPackage, builder.build(),
-        definitely.get(COLLECTOR).generatorElement, data.annotationElement);
+        data.generatorElement);
   }
 
   private boolean generateConstants(@NotNull Collector collector, @NotNull Preliminary preliminary) {
-    preliminary.action(collector, this::generateConstants);
+    // The fields of nested generator classes are contributed as well.
+    List<AnnotationData> contributed = preliminary.getOrNull(FIELDS.key());
+    List<AnnotationData> fields = new ArrayList<>();
+    if (contributed != null) {
+      for (AnnotationData field : contributed) {
+        if (field.generatorElement.equals(collector.generatorElement)) {
+          fields.add(field);
+        }
+      }
+    }
+    preliminary.action(collector, (item, definitely) -> generateConstants(item, fields, definitely));
     return true;
   }
 
-  private void generateConstants(@NotNull Collector collector, @NotNull Definitely definitely) {
+  private void generateConstants(@NotNull Collector collector, @NotNull List<AnnotationData> fields, @NotNull Definitely definitely) {
     PackageElement packageElement = definitely.processingEnv().getElementUtils().getPackageOf(collector.generatorElement);
     ClassName className = ClassName.get(packageElement.getQualifiedName().toString(), collector.targetClassName);
 
@@ -210,7 +223,7 @@ private void generateConstants(@NotNull Collector collector, @NotNull Definitely
             .addComment("This class cannot be instantiated.")
             .build());
 
-    for (AnnotationData field : collector.fields) {
+    for (AnnotationData field : fields) {
       ClassName proxyType = getProxyClassName(packageElement, field.annotationElement);
       builder.addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(AnnotationType.class), proxyType), field.fieldName)
           .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
@@ -322,37 +335,26 @@ private static void writeFile(@NotNull Definitely definitely, @NotNull PackageEl
     String packageName = packageElement.getQualifiedName().toString();
     String moduleAndPackage = moduleName.isEmpty() ? packageName : moduleName + '/' + packageName;
 
-    try {
-      JavaFileObject sourceFile = definitely.filer().createSourceFile(
-          moduleAndPackage + '.' + typeSpec.name,
-          originatingElements);
-      try (Writer writer = sourceFile.openWriter()) {
-        JavaFile.builder(packageName, typeSpec)
-            .indent("  ")
-            .build().writeTo(writer);
-      }
-      catch (Throwable t) {
-        try {
-          sourceFile.delete();
-        }
-        catch (Exception ignored) {
-          // ignore
-        }
-        throw t;
-      }
-    }
-    catch (IOException e) {
-      // TODO: How to handle this?
-      definitely.messager().printMessage(
-          Diagnostic.Kind.ERROR,
-          "IOException: " + e.getLocalizedMessage());
-    }
+    // The specs only hold strings and names converted by JavaPoet, so
+    // rendering the source code does not access the compiler and can run on
+    // a worker thread. Arguments for $L must therefore not be elements or
+    // type mirrors.
+    JavaFile javaFile = JavaFile.builder(packageName, typeSpec)
+        .indent("  ")
+        .build();
+    definitely.writeSourceFile(moduleAndPackage + '.' + typeSpec.name, javaFile::toString, originatingElements);
+  }
+
+  private static @NotNull List<AnnotationData> concat(@NotNull List<AnnotationData> first, @NotNull List<AnnotationData> second) {
+    List<AnnotationData> result = new ArrayList<>(first.size() + second.size());
+    result.addAll(first);
+    result.addAll(second);
+    return result;
   }
 
   private static final class Collector {
     private final @NotNull TypeElement generatorElement;
     private final @NotNull String targetClassName;
-    private final List<AnnotationData> fields = new ArrayList<>();
 
     private Collector(@NotNull TypeElement generatorElement,
                       @NotNull String targetClassName)
@@ -365,14 +367,17 @@ private Collector(@NotNull TypeElement generatorElement,
   private static final class AnnotationData {
     private final @NotNull String fieldName;
     private final @NotNull TypeElement annotationElement;
+    private final @NotNull TypeElement generatorElement;
     private final @NotNull PackageElement destinationPackage;
 
     private AnnotationData(@NotNull String fieldName,
                            @NotNull TypeElement annotationElement,
+                           @NotNull TypeElement generatorElement,
                            @NotNull PackageElement destinationPackage)
     {
       this.fieldName = fieldName;
       this.annotationElement = annotationElement;
+      this.generatorElement = generatorElement;
       this.destinationPackage = destinationPackage;
     }
   }